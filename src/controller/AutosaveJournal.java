@@ -0,0 +1,254 @@
+package controller;
+
+import model.ChessPosition;
+import model.GameRecord;
+import model.Move;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * 这个类在后台自动保存正在进行的棋局，程序崩溃后下次启动可以接着下。
+ * <br>
+ * 目录中有两个文件：snapshot.chs是某一时刻的完整棋局(GameRecord格式)，写临时文件后原子改名替换，任何时候都是完整的；
+ * journal.bin只追加记录快照之后走的每一步。悔棋、载入、重新开始等不能用追加表示的变化会写一个新快照并清空日志。
+ * <br>
+ * 日志开头12字节是所属快照的局面哈希值和步数，与快照不符(快照已换而日志还没清空时崩溃)的日志整个忽略；
+ * 之后每条记录2字节，是Move的编码，PASS表示倒计时结束不走棋直接换手。
+ * <br>
+ * 调用者只把记录放进队列，写文件和fsync都在后台线程进行；后台线程一次取走队列中积累的全部记录，写完后只fsync一次。
+ * 崩溃时最多丢失还在队列里的最后一步。
+ */
+public class AutosaveJournal {
+    private static final String SNAPSHOT_FILE = "snapshot." + GameRecord.EXTENSION;
+    private static final String JOURNAL_FILE = "journal.bin";
+    private static final int HEADER_SIZE = 12;
+    private static final int PASS = 0x8000;
+
+    private final Path directory;
+    private final LinkedBlockingQueue<Entry> queue = new LinkedBlockingQueue<>();
+    private final Thread writer;
+    private FileChannel journal;
+
+    /**
+     * 以下字段只在调用update的线程(事件分发线程)上使用，记录已经交给后台线程的棋局状态
+     */
+    private List<String> loggedSteps;
+    private int loggedCount;
+    private String lastLoggedStep;
+    private int loggedSide;
+
+    /**
+     * 队列中的一项：snapshot不为null时是新快照，否则是一条日志记录；close表示写完后关闭
+     */
+    private static class Entry {
+        final int record;
+        final GameRecord snapshot;
+        final boolean close;
+
+        Entry(int record, GameRecord snapshot, boolean close) {
+            this.record = record;
+            this.snapshot = snapshot;
+            this.close = close;
+        }
+    }
+
+    public AutosaveJournal(Path directory) {
+        this.directory = directory;
+        writer = new Thread(this::writeLoop, "autosave");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * 读取上次没有正常关闭时留下的快照和日志
+     *
+     * @return 快照加上日志中的走法得到的棋局；没有可以恢复的棋局时返回null
+     */
+    public GameRecord recover() {
+        Path snapshotPath = directory.resolve(SNAPSHOT_FILE);
+        if (!Files.exists(snapshotPath)) {
+            return null;
+        }
+        GameRecord snapshot;
+        byte[] data;
+        try {
+            snapshot = GameRecord.read(snapshotPath);
+            Path journalPath = directory.resolve(JOURNAL_FILE);
+            data = Files.exists(journalPath) ? Files.readAllBytes(journalPath) : new byte[0];
+        } catch (IOException e) {
+            System.out.printf("Autosave: cannot recover, %s\n", e.getMessage());
+            return null;
+        }
+        ChessPosition position = snapshot.getPosition();
+        int[] moves = new int[snapshot.getMoveCount() + Math.max(0, (data.length - HEADER_SIZE) / 2)];
+        int moveCount = snapshot.getMoveCount();
+        for (int i = 0; i < moveCount; i++) {
+            moves[i] = snapshot.getMove(i);
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        if (data.length >= HEADER_SIZE && buffer.getLong() == position.getKey() && buffer.getInt() == moveCount) {
+            // 最后一条记录可能只写了一半，忽略不完整的记录
+            while (buffer.remaining() >= 2) {
+                int record = buffer.getShort() & 0xFFFF;
+                if (record == PASS) {
+                    position.setSideToMove(position.getSideToMove() ^ 1);
+                    continue;
+                }
+                if (position.pieceAt(Move.from(record)) == ChessPosition.EMPTY) {
+                    break;
+                }
+                position.makeMove(record);
+                moves[moveCount++] = record;
+            }
+        }
+        if (moveCount == 0) {
+            return null;
+        }
+        return new GameRecord(position, Arrays.copyOf(moves, moveCount));
+    }
+
+    /**
+     * 行棋方每次改变后调用：新走的步追加到日志，其余变化写新快照。只把记录放进队列，不等待写文件
+     *
+     * @param steps    Chessboard.step
+     * @param position 当前局面
+     */
+    public void update(List<String> steps, ChessPosition position) {
+        int side = position.getSideToMove();
+        boolean appendable = steps == loggedSteps && steps.size() >= loggedCount
+                && (loggedCount == 0 || steps.get(loggedCount - 1).equals(lastLoggedStep));
+        if (!appendable) {
+            GameRecord snapshot;
+            try {
+                snapshot = GameRecord.fromSteps(position, steps);
+            } catch (IllegalArgumentException e) {
+                return;
+            }
+            queue.add(new Entry(0, snapshot, false));
+        } else {
+            for (int i = loggedCount; i < steps.size(); i++) {
+                queue.add(new Entry(Move.fromStep(steps.get(i)), null, false));
+                loggedSide ^= 1;
+            }
+            if (loggedSide != side) {
+                queue.add(new Entry(PASS, null, false));
+            }
+        }
+        loggedSteps = steps;
+        loggedCount = steps.size();
+        lastLoggedStep = loggedCount == 0 ? null : steps.get(loggedCount - 1);
+        loggedSide = side;
+    }
+
+    /**
+     * 写完队列中的记录后停止后台线程
+     *
+     * @param discard 为true时删除快照和日志(正常退出，下次启动不需要恢复)
+     */
+    public void close(boolean discard) {
+        queue.add(new Entry(0, null, true));
+        try {
+            writer.join(2000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (discard) {
+            try {
+                Files.deleteIfExists(directory.resolve(JOURNAL_FILE));
+                Files.deleteIfExists(directory.resolve(SNAPSHOT_FILE));
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private void writeLoop() {
+        List<Entry> batch = new ArrayList<>();
+        ByteBuffer buffer = ByteBuffer.allocate(1024);
+        boolean closing = false;
+        while (!closing) {
+            batch.clear();
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                break;
+            }
+            queue.drainTo(batch);
+            try {
+                buffer.clear();
+                for (Entry entry : batch) {
+                    if (entry.close) {
+                        closing = true;
+                    } else if (entry.snapshot != null) {
+                        // 快照之前还没写出的记录已经包含在快照里
+                        buffer.clear();
+                        writeSnapshot(entry.snapshot);
+                    } else if (journal != null) {
+                        if (!buffer.hasRemaining()) {
+                            flush(buffer);
+                        }
+                        buffer.putShort((short) entry.record);
+                    }
+                }
+                if (journal != null && buffer.position() > 0) {
+                    flush(buffer);
+                    journal.force(false);
+                }
+            } catch (IOException e) {
+                System.out.printf("Autosave: %s\n", e.getMessage());
+            }
+        }
+        try {
+            if (journal != null) {
+                journal.close();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void flush(ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            journal.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * 快照先写到临时文件并fsync，再原子地改名替换旧快照，最后清空日志并写入新的日志头
+     */
+    private void writeSnapshot(GameRecord snapshot) throws IOException {
+        Files.createDirectories(directory);
+        Path target = directory.resolve(SNAPSHOT_FILE);
+        Path temp = directory.resolve(SNAPSHOT_FILE + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            snapshot.write(Channels.newOutputStream(channel));
+            channel.force(true);
+        }
+        Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        if (journal == null) {
+            journal = FileChannel.open(directory.resolve(JOURNAL_FILE), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        }
+        journal.truncate(0);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putLong(snapshot.getPosition().getKey()).putInt(snapshot.getMoveCount()).flip();
+        journal.position(0);
+        while (header.hasRemaining()) {
+            journal.write(header);
+        }
+        journal.force(false);
+    }
+}
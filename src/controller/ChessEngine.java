@@ -0,0 +1,622 @@
+package controller;
+
+import model.ChessColor;
+import model.ChessPosition;
+import model.Evaluation;
+import model.Move;
+import model.MoveGenerator;
+import model.PawnHashTable;
+import model.StaticExchange;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 这个类是电脑对手的搜索引擎：在ChessPosition上用迭代加深的negamax alpha-beta搜索为任意一方选择走法。
+ * <br>
+ * 搜索受深度、节点数和时间三种预算限制，任何一个用完都会停止，并返回最后一次完整迭代的结果。时间预算由TimeManager管理。
+ * <br>
+ * 多线程时采用Lazy SMP：每个线程独立地对同一局面做迭代加深，只通过共用的置换表互相利用对方的结果。
+ */
+public class ChessEngine {
+    public static final int INFINITE = 32000;
+    public static final int MATE = 31000;
+    /**
+     * 分数绝对值超过这个值表示已经找到杀棋
+     */
+    public static final int MATE_BOUND = MATE - 1000;
+    public static final int MAX_PLY = 128;
+    /**
+     * 兵形缓存的条目数(每条16字节)，一盘棋中出现的兵形远少于这个数
+     */
+    private static final int PAWN_TABLE_ENTRIES = 1 << 14;
+
+    private final TranspositionTable table;
+    private final PawnHashTable pawnTable = new PawnHashTable(PAWN_TABLE_ENTRIES);
+    /**
+     * 最近一次prepare得到的停止标志，stop只作用于它
+     */
+    private volatile StopToken current = new StopToken();
+    private SearchListener listener;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private ExecutorService helperPool;
+    private volatile boolean moveOrdering = true;
+    private TimeManager timeManager;
+    private EndgameTablebase tablebase;
+    private volatile long cutoffs;
+    private volatile long firstMoveCutoffs;
+    /**
+     * 所有线程合计的节点数，每个线程每1024个节点和每次迭代结束时累加一次
+     */
+    private final AtomicLong sharedNodes = new AtomicLong();
+
+    /**
+     * 一次搜索的停止标志。在提交搜索的线程上由prepare创建，之后的stop一定会让这次搜索停止，
+     * 不会被搜索线程启动时的初始化抹掉；下一次prepare换成新的标志，也不会影响已经停下的搜索。
+     */
+    public static final class StopToken {
+        private volatile boolean stopped;
+
+        public void stop() {
+            stopped = true;
+        }
+
+        public boolean isStopped() {
+            return stopped;
+        }
+    }
+
+    /**
+     * 每完成一次迭代回调一次，用于输出搜索信息
+     */
+    public interface SearchListener {
+        void onIteration(SearchResult result);
+    }
+
+    /**
+     * 一次搜索(或一次迭代)的结果
+     */
+    public static class SearchResult {
+        public final int bestMove;
+        public final int score;
+        public final int depth;
+        public final long nodes;
+        public final long millis;
+
+        public SearchResult(int bestMove, int score, int depth, long nodes, long millis) {
+            this.bestMove = bestMove;
+            this.score = score;
+            this.depth = depth;
+            this.nodes = nodes;
+            this.millis = millis;
+        }
+
+        public long getNps() {
+            return millis > 0 ? nodes * 1000 / millis : nodes * 1000;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("depth %d score %d nodes %d time %dms nps %d best %s", depth, score, nodes, millis, getNps(),
+                    bestMove == Move.NONE ? "none" : Move.toStep(bestMove, 0).substring(0, 4));
+        }
+    }
+
+    public ChessEngine(TranspositionTable table) {
+        this.table = table;
+    }
+
+    public ChessEngine() {
+        this(new TranspositionTable(16));
+    }
+
+    public TranspositionTable getTable() {
+        return table;
+    }
+
+    /**
+     * @return 兵形评估的缓存，所有搜索线程共用
+     */
+    public PawnHashTable getPawnTable() {
+        return pawnTable;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * @param threads 搜索线程数，默认为处理器核数
+     */
+    public void setThreads(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be positive: " + threads);
+        }
+        this.threads = threads;
+    }
+
+    /**
+     * @param tablebase 残局库，为null时不查询
+     */
+    public void setTablebase(EndgameTablebase tablebase) {
+        this.tablebase = tablebase;
+    }
+
+    /**
+     * 关闭后按生成顺序搜索走法，仅用于对比走法排序的效果
+     */
+    public void setMoveOrdering(boolean moveOrdering) {
+        this.moveOrdering = moveOrdering;
+    }
+
+    /**
+     * @return 上一次搜索中发生beta截断的次数
+     */
+    public long getCutoffs() {
+        return cutoffs;
+    }
+
+    /**
+     * @return 上一次搜索中由第一个走法造成的beta截断次数
+     */
+    public long getFirstMoveCutoffs() {
+        return firstMoveCutoffs;
+    }
+
+    /**
+     * @return 上一次搜索中第一个走法就截断的比例，越接近1说明走法排序越好
+     */
+    public double getFirstMoveCutoffRate() {
+        return cutoffs == 0 ? 0 : (double) firstMoveCutoffs / cutoffs;
+    }
+
+    public void setListener(SearchListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * 为下一次搜索创建新的停止标志，应当在提交搜索的线程上调用，再把返回值交给search。
+     * 这样在搜索线程真正开始之前到达的stop也不会丢失。
+     */
+    public StopToken prepare() {
+        StopToken token = new StopToken();
+        current = token;
+        return token;
+    }
+
+    /**
+     * 让最近一次prepare对应的搜索尽快停止，可以从其他线程调用；搜索还没开始时它开始后立即停止
+     */
+    public void stop() {
+        current.stop();
+    }
+
+    /**
+     * 为color一方在position上搜索走法
+     */
+    public SearchResult search(ChessPosition position, ChessColor color, int maxDepth, long maxNodes, long timeMillis) {
+        ChessPosition root = new ChessPosition(position);
+        root.setSideToMove(ChessPosition.colorIndex(color));
+        return search(root, maxDepth, maxNodes, timeMillis);
+    }
+
+    /**
+     * 为行棋方搜索走法，position本身不会被修改
+     *
+     * @param maxDepth   最大深度
+     * @param maxNodes   节点预算(所有线程合计)，0表示不限
+     * @param timeMillis 时间预算(毫秒)，0表示不限
+     * @return 最后一次完整迭代的结果；没有合法走法时bestMove为Move.NONE
+     */
+    public SearchResult search(ChessPosition position, int maxDepth, long maxNodes, long timeMillis) {
+        return search(position, maxDepth, maxNodes, TimeManager.fixed(timeMillis));
+    }
+
+    /**
+     * 由timeManager控制时间的搜索：到硬期限立即停止，每次迭代后由它决定是否继续
+     */
+    public SearchResult search(ChessPosition position, int maxDepth, long maxNodes, TimeManager timeManager) {
+        return search(position, maxDepth, maxNodes, timeManager, prepare());
+    }
+
+    /**
+     * @param token prepare的返回值，调用stop或token.stop时搜索停止
+     */
+    public SearchResult search(ChessPosition position, int maxDepth, long maxNodes, TimeManager timeManager, StopToken token) {
+        sharedNodes.set(0);
+        table.newSearch();
+        timeManager.start();
+        this.timeManager = timeManager;
+        long start = System.currentTimeMillis();
+        long deadline = timeManager.hardDeadline();
+        int depthLimit = Math.min(maxDepth, MAX_PLY - 1);
+        Worker main = new Worker(0, position, maxNodes, deadline, start, token);
+        if (MoveGenerator.generateLegal(main.position, main.moves[0]) == 0) {
+            return new SearchResult(Move.NONE, 0, 0, 0, 0);
+        }
+        // 辅助线程与主线程并行搜索同一局面，只通过置换表交换结果
+        int threadCount = threads;
+        Worker[] workers = new Worker[threadCount];
+        workers[0] = main;
+        List<Future<?>> futures = new ArrayList<>(threadCount - 1);
+        for (int i = 1; i < threadCount; i++) {
+            Worker helper = new Worker(i, position, maxNodes, deadline, start, token);
+            workers[i] = helper;
+            futures.add(helperPool().submit(() -> helper.iterate(depthLimit)));
+        }
+        main.iterate(depthLimit);
+        token.stop();
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                throw new IllegalStateException(e.getCause());
+            }
+        }
+        // 取完成深度最大的线程的结果，深度相同时以主线程为准
+        SearchResult result = main.result;
+        long nodes = 0, totalCutoffs = 0, totalFirstMoveCutoffs = 0;
+        for (Worker worker : workers) {
+            nodes += worker.nodes;
+            totalCutoffs += worker.cutoffs;
+            totalFirstMoveCutoffs += worker.firstMoveCutoffs;
+            if (worker.result.depth > result.depth) {
+                result = worker.result;
+            }
+        }
+        cutoffs = totalCutoffs;
+        firstMoveCutoffs = totalFirstMoveCutoffs;
+        return new SearchResult(result.bestMove, result.score, result.depth, nodes, System.currentTimeMillis() - start);
+    }
+
+    /**
+     * 从置换表中依次取出最佳走法得到主要变例，遇到不合法的走法或重复局面时停止
+     *
+     * @return 从position出发的走法序列，第一个为firstMove
+     */
+    public int[] principalVariation(ChessPosition position, int firstMove, int maxLength) {
+        ChessPosition line = new ChessPosition(position);
+        int[] buffer = new int[MoveGenerator.MAX_MOVES];
+        int[] pv = new int[maxLength];
+        int length = 0;
+        int move = firstMove;
+        while (length < maxLength && move != Move.NONE && contains(buffer, MoveGenerator.generateLegal(line, buffer), move)) {
+            pv[length++] = move;
+            line.makeMove(move);
+            if (line.isRepetition()) {
+                break;
+            }
+            long entry = table.probe(line.getKey());
+            move = entry == 0 ? Move.NONE : TranspositionTable.move(entry);
+        }
+        return Arrays.copyOf(pv, length);
+    }
+
+    private static boolean contains(int[] moves, int count, int move) {
+        for (int i = 0; i < count; i++) {
+            if (moves[i] == move) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private synchronized ExecutorService helperPool() {
+        if (helperPool == null) {
+            helperPool = Executors.newCachedThreadPool(r -> {
+                Thread thread = new Thread(r, "chess-engine-helper");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return helperPool;
+    }
+
+    /**
+     * 单个搜索线程的状态：自己的局面副本和每层的走法缓冲区，搜索过程中不再分配对象
+     */
+    private class Worker {
+        private final int id;
+        private final ChessPosition position;
+        private final int[][] moves = new int[MAX_PLY][MoveGenerator.MAX_MOVES];
+        private final int[][] scores = new int[MAX_PLY][MoveGenerator.MAX_MOVES];
+        private final MoveOrdering ordering = new MoveOrdering();
+        private final int[] exchangeGain = new int[StaticExchange.BUFFER_SIZE];
+        private final long maxNodes;
+        private final long deadline;
+        private final long start;
+        private final StopToken token;
+        private long nodes;
+        /**
+         * 已经累加到sharedNodes的节点数
+         */
+        private long sharedCount;
+        private long cutoffs;
+        private long firstMoveCutoffs;
+        private int rootBestMove = Move.NONE;
+        private int rootBestScore;
+        private int rootCompletedMoves;
+        private SearchResult result;
+
+        Worker(int id, ChessPosition root, long maxNodes, long deadline, long start, StopToken token) {
+            this.id = id;
+            this.position = new ChessPosition(root);
+            this.maxNodes = maxNodes;
+            this.deadline = deadline;
+            this.start = start;
+            this.token = token;
+            MoveGenerator.generateLegal(position, moves[0]);
+            // 即使第一次迭代没有完成，也至少返回一个合法走法
+            result = new SearchResult(moves[0][0], 0, 0, 0, 0);
+        }
+
+        /**
+         * 迭代加深。奇数编号的辅助线程每次比主线程深一层，让各线程错开，减少重复搜索同样的子树
+         */
+        void iterate(int depthLimit) {
+            for (int depth = 1 + (id & 1); depth <= depthLimit && !token.stopped; depth++) {
+                int score = searchRoot(depth);
+                long totalNodes = flushNodes();
+                if (rootBestMove != Move.NONE && (!token.stopped || rootCompletedMoves > 0)) {
+                    int bestScore = token.stopped ? rootBestScore : score;
+                    result = new SearchResult(rootBestMove, bestScore, token.stopped ? depth - 1 : depth, nodes,
+                            System.currentTimeMillis() - start);
+                }
+                if (token.stopped) {
+                    break;
+                }
+                if (id == 0 && listener != null) {
+                    listener.onIteration(new SearchResult(result.bestMove, result.score, result.depth,
+                            totalNodes, result.millis));
+                }
+                if (Math.abs(score) >= MATE_BOUND && MATE - Math.abs(score) <= depth) {
+                    break;
+                }
+                if (id == 0 && timeManager.onIteration(depth, result.bestMove, result.score)) {
+                    break;
+                }
+            }
+        }
+
+        int searchRoot(int depth) {
+            int[] rootMoves = moves[0];
+            int[] rootScores = scores[0];
+            int count = MoveGenerator.generateLegal(position, rootMoves);
+            // 上一次迭代的最佳走法放在最前面
+            if (moveOrdering) {
+                ordering.score(position, rootMoves, rootScores, count, rootBestMove, 0);
+            }
+            int alpha = -INFINITE;
+            int bestMove = Move.NONE;
+            rootCompletedMoves = 0;
+            for (int i = 0; i < count; i++) {
+                int move = moveOrdering ? MoveOrdering.pick(rootMoves, rootScores, i, count) : rootMoves[i];
+                position.makeMove(move);
+                int score = -search(depth - 1, -INFINITE, -alpha, 1);
+                position.unmakeMove();
+                if (token.stopped) {
+                    break;
+                }
+                rootCompletedMoves++;
+                if (score > alpha) {
+                    alpha = score;
+                    bestMove = move;
+                    rootBestMove = move;
+                    rootBestScore = score;
+                }
+            }
+            if (bestMove != Move.NONE) {
+                table.store(position.getKey(), bestMove, alpha, depth, TranspositionTable.BOUND_EXACT);
+            }
+            return alpha;
+        }
+
+        private int search(int depth, int alpha, int beta, int ply) {
+            if (depth <= 0) {
+                return quiescence(alpha, beta, ply);
+            }
+            if ((++nodes & 1023) == 0) {
+                checkLimits();
+            }
+            if (token.stopped) {
+                return 0;
+            }
+            int side = position.getSideToMove();
+            // 本游戏以吃王结束：己方王已被吃掉判负，能吃对方王判胜
+            if (position.kingSquare(side) < 0) {
+                return -MATE + ply;
+            }
+            if (position.isInCheck(side ^ 1)) {
+                return MATE - ply;
+            }
+            if (position.isRepetition()) {
+                return 0;
+            }
+            if (tablebase != null) {
+                int value = tablebase.probe(position);
+                if (value != EndgameTablebase.UNKNOWN) {
+                    return tablebaseScore(value, ply);
+                }
+            }
+            long key = position.getKey();
+            long entry = table.probe(key);
+            int ttMove = Move.NONE;
+            if (entry != 0) {
+                ttMove = TranspositionTable.move(entry);
+                if (TranspositionTable.depth(entry) >= depth) {
+                    int score = scoreFromTable(TranspositionTable.score(entry), ply);
+                    int bound = TranspositionTable.bound(entry);
+                    if (bound == TranspositionTable.BOUND_EXACT
+                            || bound == TranspositionTable.BOUND_LOWER && score >= beta
+                            || bound == TranspositionTable.BOUND_UPPER && score <= alpha) {
+                        return score;
+                    }
+                }
+            }
+            if (ply >= MAX_PLY - 1) {
+                return evaluate();
+            }
+            int[] buffer = moves[ply];
+            int[] bufferScores = scores[ply];
+            int count = MoveGenerator.generateLegal(position, buffer);
+            if (count == 0) {
+                return position.isInCheck(side) ? -MATE + ply : 0;
+            }
+            if (moveOrdering) {
+                ordering.score(position, buffer, bufferScores, count, ttMove, ply);
+            }
+            int originalAlpha = alpha;
+            int bestScore = -INFINITE;
+            int bestMove = Move.NONE;
+            for (int i = 0; i < count; i++) {
+                int move = moveOrdering ? MoveOrdering.pick(buffer, bufferScores, i, count) : buffer[i];
+                position.makeMove(move);
+                int score = -search(depth - 1, -beta, -alpha, ply + 1);
+                position.unmakeMove();
+                if (token.stopped) {
+                    return 0;
+                }
+                if (score > bestScore) {
+                    bestScore = score;
+                    bestMove = move;
+                    if (score > alpha) {
+                        alpha = score;
+                        if (score >= beta) {
+                            cutoffs++;
+                            if (i == 0) {
+                                firstMoveCutoffs++;
+                            }
+                            if (moveOrdering) {
+                                ordering.onCutoff(position, move, ply, depth);
+                            }
+                            break;
+                        }
+                    }
+                }
+            }
+            int bound = bestScore >= beta ? TranspositionTable.BOUND_LOWER
+                    : bestScore > originalAlpha ? TranspositionTable.BOUND_EXACT : TranspositionTable.BOUND_UPPER;
+            table.store(key, bestMove, scoreToTable(bestScore, ply), depth, bound);
+            return bestScore;
+        }
+
+        /**
+         * 静态搜索：只展开吃子和升变，直到局面平静再评估，避免在吃子交换的中途评估造成的水平线效应。
+         * 被将军时不能"不走"，此时展开全部合法走法。
+         */
+        private int quiescence(int alpha, int beta, int ply) {
+            if ((++nodes & 1023) == 0) {
+                checkLimits();
+            }
+            if (token.stopped) {
+                return 0;
+            }
+            int side = position.getSideToMove();
+            if (position.kingSquare(side) < 0) {
+                return -MATE + ply;
+            }
+            if (position.isInCheck(side ^ 1)) {
+                return MATE - ply;
+            }
+            if (tablebase != null) {
+                int value = tablebase.probe(position);
+                if (value != EndgameTablebase.UNKNOWN) {
+                    return tablebaseScore(value, ply);
+                }
+            }
+            if (ply >= MAX_PLY - 1) {
+                return evaluate();
+            }
+            boolean inCheck = position.isInCheck(side);
+            int bestScore = -INFINITE;
+            if (!inCheck) {
+                // 不吃子也可以，所以当前评估是分数的下界
+                bestScore = evaluate();
+                if (bestScore >= beta) {
+                    return bestScore;
+                }
+                alpha = Math.max(alpha, bestScore);
+            }
+            int[] buffer = moves[ply];
+            int[] bufferScores = scores[ply];
+            int count = inCheck ? MoveGenerator.generateLegal(position, buffer) : MoveGenerator.generateCaptures(position, buffer);
+            if (inCheck && count == 0) {
+                return -MATE + ply;
+            }
+            if (moveOrdering) {
+                MoveOrdering.scoreCaptures(position, buffer, bufferScores, count);
+            }
+            for (int i = 0; i < count; i++) {
+                int move = moveOrdering ? MoveOrdering.pick(buffer, bufferScores, i, count) : buffer[i];
+                // 不被将军时跳过静态交换会丢子的吃子，它们几乎不可能让分数超过alpha
+                if (!inCheck && (StaticExchange.evaluate(position, move, exchangeGain) < 0 || !position.isLegal(move))) {
+                    continue;
+                }
+                position.makeMove(move);
+                int score = -quiescence(-beta, -alpha, ply + 1);
+                position.unmakeMove();
+                if (token.stopped) {
+                    return 0;
+                }
+                if (score > bestScore) {
+                    bestScore = score;
+                    if (score > alpha) {
+                        alpha = score;
+                        if (score >= beta) {
+                            break;
+                        }
+                    }
+                }
+            }
+            return bestScore;
+        }
+
+        /**
+         * 把还没有累加的节点数加到sharedNodes
+         *
+         * @return 所有线程合计的节点数
+         */
+        private long flushNodes() {
+            long total = sharedNodes.addAndGet(nodes - sharedCount);
+            sharedCount = nodes;
+            return total;
+        }
+
+        private void checkLimits() {
+            long total = flushNodes();
+            if (maxNodes > 0 && total >= maxNodes || System.currentTimeMillis() >= deadline) {
+                token.stopped = true;
+            }
+        }
+
+        private int evaluate() {
+            return Evaluation.evaluate(position, pawnTable);
+        }
+    }
+
+    /**
+     * 把残局库的结果换算成距根节点的杀棋分数
+     */
+    static int tablebaseScore(int value, int ply) {
+        return value > 0 ? MATE - ply - value : value < 0 ? -MATE + ply - value - 1 : 0;
+    }
+
+    /**
+     * 杀棋分数在置换表中按"距当前局面的步数"保存，取出时再换算回"距根节点的步数"
+     */
+    static int scoreToTable(int score, int ply) {
+        return score >= MATE_BOUND ? score + ply : score <= -MATE_BOUND ? score - ply : score;
+    }
+
+    static int scoreFromTable(int score, int ply) {
+        return score >= MATE_BOUND ? score - ply : score <= -MATE_BOUND ? score + ply : score;
+    }
+}
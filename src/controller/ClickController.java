@@ -1,6 +1,10 @@
 package controller;
 
 import model.ChessComponent;
+import model.ChessPosition;
+import model.Move;
+import model.MoveGenerator;
+import model.StaticExchange;
 import view.Chessboard;
 
 import javax.sound.sampled.*;
@@ -11,6 +15,12 @@ public class ClickController {
     private final Chessboard chessboard;
     private ChessComponent first;
     private Clip click;
+    /**
+     * 选中棋子的走法缓冲区，每次选中时复用，不再为每个目标位置创建对象
+     */
+    private final int[] moves = new int[MoveGenerator.MAX_PIECE_MOVES];
+    private int moveCount;
+    private final int[] exchangeGain = new int[StaticExchange.BUFFER_SIZE];
 
     public void entered(ChessComponent chessComponent) {
         chessComponent.setEntered(true);
@@ -21,17 +31,23 @@ public class ClickController {
     }
 
     public void onClick(ChessComponent chessComponent) {
+        if (chessboard.getGameController().isComputerTurn() || chessboard.isPromoting()) {
+            return; // 电脑思考时或升变对话框还开着时不响应点击
+        }
         if (first == null) {
             if (handleFirst(chessComponent)) {
                 click();
                 chessComponent.setSelected(true);
                 first = chessComponent;
-                for (int i = 0; i < 8; i++) {
-                    for (int j = 0; j < 8; j++) {
-                        if (handleSecond(chessboard.getChessComponents()[i][j])) {
-                            chessboard.getChessComponents()[i][j].setTrace(true);
-                        }
+                moveCount = MoveGenerator.generateFrom(chessboard.getPosition(), squareOf(first), moves);
+                for (int i = 0; i < moveCount; i++) {
+                    int to = Move.to(moves[i]);
+                    if (Move.promotion(moves[i]) != 0 && Move.promotion(moves[i]) != ChessPosition.QUEEN) {
+                        continue; // 同一格的低升变不另外标记
                     }
+                    ChessComponent target = chessboard.getChessComponents()[ChessPosition.rowOf(to)][ChessPosition.colOf(to)];
+                    target.setTrace(true);
+                    target.setExchange(StaticExchange.evaluate(chessboard.getPosition(), moves[i], exchangeGain));
                 }
                 chessboard.repaint();
                 first.repaint();
@@ -71,8 +87,17 @@ public class ClickController {
      */
 
     private boolean handleSecond(ChessComponent chessComponent) {
-        return chessComponent.getChessColor() != chessboard.getCurrentColor() &&
-                first.canMoveTo(chessboard.getChessComponents(), chessComponent.getChessboardPoint());
+        int to = squareOf(chessComponent);
+        for (int i = 0; i < moveCount; i++) {
+            if (Move.to(moves[i]) == to) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int squareOf(ChessComponent chessComponent) {
+        return ChessPosition.square(chessComponent.getChessboardPoint().getX(), chessComponent.getChessboardPoint().getY());
     }
 
     private void click(){
@@ -0,0 +1,296 @@
+package controller;
+
+import model.Attacks;
+import model.ChessPosition;
+import model.MoveGenerator;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.IntStream;
+
+/**
+ * 这个类是王加一子对单王(KQK、KRK、KPK)的残局库：离线用逆推分析算出每个局面的胜负和距离将死的步数，
+ * 搜索时通过内存映射的文件直接查表。
+ * <br>
+ * 每种残局一个文件，按下标寻址，每个局面一个字节，从行棋方的角度记录结果：
+ * 0为和棋，正数n表示n步(半回合)内将死对方，负数-n表示n-1步后被将死。
+ * 下标 = ((行棋方 * 64 + 强方王) * 64 + 弱方王) * 64 + 强方棋子，强方按白方存储，黑方为强方时把棋盘上下翻转、交换颜色后查询。
+ * <br>
+ * 用法：java controller.EndgameTablebase &lt;输出目录&gt; [线程数]
+ */
+public class EndgameTablebase {
+    /**
+     * 局面不在残局库范围内
+     */
+    public static final int UNKNOWN = Integer.MIN_VALUE;
+    static final int SIZE = 2 * 64 * 64 * 64;
+    /**
+     * 生成顺序：兵升变后会进入后和车的残局，所以兵最后生成
+     */
+    private static final int[] TYPES = {ChessPosition.QUEEN, ChessPosition.ROOK, ChessPosition.PAWN};
+    /**
+     * 子节点是已知结果(另一张表或和棋)时，在子节点数组中以此标记加上结果字节表示
+     */
+    private static final int FIXED = 0x80000000;
+
+    private final MappedByteBuffer[] tables = new MappedByteBuffer[6];
+    private final LongAdder hits = new LongAdder();
+
+    private EndgameTablebase() {
+    }
+
+    /**
+     * 映射目录中已有的残局库文件，缺少的残局不参与查询
+     */
+    public static EndgameTablebase open(Path directory) throws IOException {
+        EndgameTablebase tablebase = new EndgameTablebase();
+        for (int type : TYPES) {
+            Path path = directory.resolve(fileName(type));
+            if (Files.exists(path)) {
+                try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                    if (channel.size() != SIZE) {
+                        throw new IOException("wrong tablebase size: " + path);
+                    }
+                    tablebase.tables[type] = channel.map(FileChannel.MapMode.READ_ONLY, 0, SIZE);
+                }
+            }
+        }
+        return tablebase;
+    }
+
+    static String fileName(int type) {
+        return "K" + Character.toUpperCase(ChessPosition.pieceChar(type)) + "K.tb";
+    }
+
+    /**
+     * @return 查询到结果的次数
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * 查询局面的结果。棋盘上超过3个棋子时只做一次位计数就返回，开销可以忽略
+     *
+     * @return 行棋方视角的结果(见类说明)，不在库中时返回UNKNOWN
+     */
+    public int probe(ChessPosition position) {
+        long occupancy = position.occupancy();
+        if (Long.bitCount(occupancy) > 3) {
+            return UNKNOWN;
+        }
+        int whiteKing = position.kingSquare(ChessPosition.WHITE), blackKing = position.kingSquare(ChessPosition.BLACK);
+        if (whiteKing < 0 || blackKing < 0) {
+            return UNKNOWN;
+        }
+        long others = occupancy & ~(1L << whiteKing) & ~(1L << blackKing);
+        int value = others == 0 ? 0 : lookup(position, Long.numberOfTrailingZeros(others), whiteKing, blackKing);
+        if (value != UNKNOWN) {
+            hits.increment();
+        }
+        return value;
+    }
+
+    private int lookup(ChessPosition position, int square, int whiteKing, int blackKing) {
+        int piece = position.pieceAt(square);
+        int type = ChessPosition.typeOf(piece);
+        if (type == ChessPosition.KNIGHT || type == ChessPosition.BISHOP) {
+            // 单马、单象不能将死
+            return 0;
+        }
+        MappedByteBuffer table = tables[type];
+        if (table == null) {
+            return UNKNOWN;
+        }
+        return table.get(indexOf(position.getSideToMove(), ChessPosition.colorOf(piece), whiteKing, blackKing, square));
+    }
+
+    /**
+     * @param strong 拥有那个棋子的一方
+     */
+    private static int indexOf(int sideToMove, int strong, int whiteKing, int blackKing, int square) {
+        if (strong == ChessPosition.WHITE) {
+            return index(sideToMove, whiteKing, blackKing, square);
+        }
+        return index(sideToMove ^ 1, blackKing ^ 56, whiteKing ^ 56, square ^ 56);
+    }
+
+    static int index(int sideToMove, int strongKing, int weakKing, int square) {
+        return ((sideToMove * 64 + strongKing) * 64 + weakKing) * 64 + square;
+    }
+
+    /**
+     * 生成全部残局库文件
+     */
+    public static void generate(Path directory, int threads) throws IOException, InterruptedException {
+        Files.createDirectories(directory);
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        byte[][] done = new byte[6][];
+        try {
+            for (int type : TYPES) {
+                long start = System.currentTimeMillis();
+                done[type] = generate(type, done, pool);
+                Path path = directory.resolve(fileName(type));
+                Files.write(path, done[type]);
+                System.out.printf("%s written in %.1f s\n", path, (System.currentTimeMillis() - start) / 1000.0);
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * 逆推分析：先标出被将死和无子可动的局面，然后第n轮找出n步内取胜(n为奇数)或n-1步后必败(n为偶数)的局面，
+     * 直到连续两轮都没有新结果，剩下的局面都是和棋。吃子或升变后进入的局面直接取已生成的表中的结果。
+     * <br>
+     * 奇数轮只写入胜局、只读取败局，偶数轮相反，所以同一轮内各线程可以并行处理不同的局面而不互相影响。
+     */
+    private static byte[] generate(int type, byte[][] done, ForkJoinPool pool) throws InterruptedException {
+        byte[] values = new byte[SIZE];
+        int[][] children = new int[SIZE][];
+        ThreadLocal<ChessPosition> positions = ThreadLocal.withInitial(ChessPosition::new);
+        ThreadLocal<int[]> buffers = ThreadLocal.withInitial(() -> new int[MoveGenerator.MAX_MOVES]);
+        run(pool, index -> {
+            ChessPosition position = positions.get();
+            if (!setUp(position, type, index)) {
+                return;
+            }
+            int[] moves = buffers.get();
+            int count = MoveGenerator.generateLegal(position, moves);
+            if (count == 0) {
+                values[index] = (byte) (position.isInCheck(position.getSideToMove()) ? -1 : 0);
+                return;
+            }
+            int[] links = new int[count];
+            for (int i = 0; i < count; i++) {
+                position.makeMove(moves[i]);
+                links[i] = childOf(position, type, done);
+                position.unmakeMove();
+            }
+            children[index] = links;
+        });
+
+        // 进入其他残局的子节点结果已知，在它们的距离用完之前不能因为连续两轮没有新结果就停止
+        int horizon = 0;
+        for (byte[] table : done) {
+            if (table != null) {
+                for (byte value : table) {
+                    horizon = Math.max(horizon, Math.abs(value));
+                }
+            }
+        }
+        int unchanged = 0;
+        for (int n = 1; (unchanged < 2 || n <= horizon + 1) && n < 126; n++) {
+            boolean win = (n & 1) == 1;
+            int distance = n;
+            AtomicInteger found = new AtomicInteger();
+            run(pool, index -> {
+                int[] links = children[index];
+                if (links == null || values[index] != 0) {
+                    return;
+                }
+                if (win) {
+                    for (int link : links) {
+                        int value = valueOf(link, values);
+                        // 对方n-1步内被将死
+                        if (value < 0 && -value - 1 <= distance - 1) {
+                            values[index] = (byte) distance;
+                            found.incrementAndGet();
+                            return;
+                        }
+                    }
+                } else {
+                    for (int link : links) {
+                        int value = valueOf(link, values);
+                        // 每一步都让对方在n-1步内取胜
+                        if (value <= 0 || value > distance - 1) {
+                            return;
+                        }
+                    }
+                    values[index] = (byte) (-distance - 1);
+                    found.incrementAndGet();
+                }
+            });
+            unchanged = found.get() == 0 ? unchanged + 1 : 0;
+            if (found.get() > 0) {
+                System.out.printf("%s: %d positions %s in %d plies\n", fileName(type), found.get(), win ? "won" : "lost", n);
+            }
+        }
+        return values;
+    }
+
+    private static int valueOf(int link, byte[] values) {
+        return (link & FIXED) != 0 ? (byte) link : values[link];
+    }
+
+    /**
+     * 按下标摆出强方为白方的局面
+     *
+     * @return 下标对应一个合法局面：格子不重叠、两王不相邻、兵不在底线、不行棋的一方没有被将军
+     */
+    private static boolean setUp(ChessPosition position, int type, int index) {
+        int square = index & 63, weakKing = index >>> 6 & 63, strongKing = index >>> 12 & 63, sideToMove = index >>> 18;
+        if (square == strongKing || square == weakKing || strongKing == weakKing
+                || (Attacks.kingAttacks(strongKing) & 1L << weakKing) != 0) {
+            return false;
+        }
+        int row = ChessPosition.rowOf(square);
+        if (type == ChessPosition.PAWN && (row == 0 || row == 7)) {
+            return false;
+        }
+        position.clear();
+        position.putPiece(strongKing, ChessPosition.makePiece(ChessPosition.WHITE, ChessPosition.KING));
+        position.putPiece(weakKing, ChessPosition.makePiece(ChessPosition.BLACK, ChessPosition.KING));
+        position.putPiece(square, ChessPosition.makePiece(ChessPosition.WHITE, type));
+        position.setSideToMove(sideToMove);
+        return !position.isInCheck(sideToMove ^ 1);
+    }
+
+    /**
+     * @return 走完一步后的局面在本表中的下标；进入其他残局(吃子、升变)时返回FIXED加上已知结果
+     */
+    private static int childOf(ChessPosition position, int type, byte[][] done) {
+        int whiteKing = position.kingSquare(ChessPosition.WHITE), blackKing = position.kingSquare(ChessPosition.BLACK);
+        long others = position.occupancy() & ~(1L << whiteKing) & ~(1L << blackKing);
+        if (others == 0) {
+            return FIXED;
+        }
+        int square = Long.numberOfTrailingZeros(others);
+        int childType = ChessPosition.typeOf(position.pieceAt(square));
+        int index = index(position.getSideToMove(), whiteKing, blackKing, square);
+        if (childType == type) {
+            return index;
+        }
+        return done[childType] == null ? FIXED : FIXED | done[childType][index] & 0xFF;
+    }
+
+    private interface IndexTask {
+        void run(int index);
+    }
+
+    private static void run(ForkJoinPool pool, IndexTask task) throws InterruptedException {
+        try {
+            pool.submit(() -> IntStream.range(0, SIZE).parallel().forEach(task::run)).get();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length == 0) {
+            System.out.println("usage: EndgameTablebase <output directory> [threads]");
+            return;
+        }
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        generate(Paths.get(args[0]), threads);
+    }
+}
@@ -15,12 +15,57 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.ArrayList;
-import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class GameController extends Component {
     private Chessboard chessboard;
     public ChessGameFrame chessGameFrame;
     private Clip bgm;
+    /**
+     * 电脑对手：computerColor为NONE时是双人对战，否则电脑执该颜色，在后台线程搜索，不阻塞界面
+     */
+    private final ChessEngine engine = new ChessEngine();
+    private ChessColor computerColor = ChessColor.NONE;
+    /**
+     * 电脑每步最多思考的时间，倒计时剩余更少时按倒计时缩短
+     */
+    private static final long MAX_THINK_MILLIS = 10000;
+    /**
+     * 开局库文件，用OpeningBook从resource/中的存档生成；不存在时电脑从第一步就开始搜索
+     */
+    private static final String BOOK_PATH = "resource/book.bin";
+    private OpeningBook book;
+    /**
+     * 残局库目录，用EndgameTablebase生成；不存在时不查询
+     */
+    private static final String TABLEBASE_PATH = "resource/tablebase";
+    /**
+     * 自动保存的目录，正常退出时清空；启动时里面还有棋局说明上次没有正常退出，接着下
+     */
+    private static final String AUTOSAVE_PATH = "autosave";
+    private final AutosaveJournal autosave = new AutosaveJournal(Paths.get(AUTOSAVE_PATH));
+    private final Random random = new Random();
+    private final ExecutorService engineExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "chess-engine");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AtomicInteger searchGeneration = new AtomicInteger();
+    /**
+     * 玩家行棋时在后台分析局面，点击HINT时立即给出结果
+     */
+    private final HintService hintService = new HintService(engine.getTable());
+    private long hintKey;
+    private boolean hintVisible;
+    private long searchingKey;
+    private boolean searching;
+    /**
+     * 从二进制存档载入后尚未重放的棋局，第一次走棋、悔棋或复盘之前才在局面上重放
+     */
+    private GameRecord pendingReplay;
 
     public void setChessGameFrame(ChessGameFrame chessGameFrame) {
         this.chessGameFrame = chessGameFrame;
@@ -44,82 +89,216 @@ public class GameController extends Component {
             e.printStackTrace();
         }
         this.chessboard = chessboard;
+        if (Files.exists(Paths.get(BOOK_PATH))) {
+            try {
+                book = OpeningBook.open(Paths.get(BOOK_PATH));
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        if (Files.isDirectory(Paths.get(TABLEBASE_PATH))) {
+            try {
+                EndgameTablebase tablebase = EndgameTablebase.open(Paths.get(TABLEBASE_PATH));
+                engine.setTablebase(tablebase);
+                hintService.setTablebase(tablebase);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        hintService.setListener(hint -> {
+            if (hintVisible && hint.key == chessboard.getPositionKey()) {
+                chessGameFrame.showHint("HINT: " + hint);
+            }
+        });
     }
 
-    public void loadGameFromFile(String path) {
+    /**
+     * 载入文本存档：文件只读一遍，边校验边重放，然后一次摆出最终局面
+     *
+     * @throws SaveFileReader.FormatException 存档格式错误，带有错误代码和行号
+     */
+    public void loadGameFromFile(String path) throws IOException {
+        loadRecord(SaveFileReader.read(Paths.get(path)));
+    }
+
+    /**
+     * 载入二进制存档：直接摆出最终局面，走法只在悔棋时才重放，载入时间与棋局长度无关
+     *
+     * @throws IOException 文件不是二进制存档或内容损坏
+     */
+    public void loadRecordFromFile(String path) throws IOException {
+        loadRecord(GameRecord.read(Paths.get(path)));
+    }
+
+    private void loadRecord(GameRecord record) {
+        chessboard.completePromotion();
+        cancelComputerMove();
+        chessboard.loadPosition(record.getPosition());
+        chessGameFrame.changePlayer(chessboard.getCurrentColor().getName());
+        chessboard.step = record.toSteps();
+        pendingReplay = chessboard.getPosition().getPly() < record.getMoveCount() ? record : null;
+        chessGameFrame.getTimerTask().resetTime();
+        onTurnChanged();
+    }
+
+    /**
+     * 二进制存档载入后局面没有悔棋记录，在载入后的第一步棋、第一次悔棋或复盘之前从初始局面重放一次。
+     * 必须在局面上走出新的一步之前调用，否则重放会覆盖掉载入之后走的棋。
+     * <br>
+     * 重放失败时局面保持不变(没有载入之前的悔棋记录)，并按载入失败提示错误代码104
+     *
+     * @return 悔棋记录是否完整
+     */
+    public boolean ensureHistory() {
+        if (pendingReplay == null) {
+            return true;
+        }
+        GameRecord record = pendingReplay;
+        pendingReplay = null;
+        ChessPosition replayed;
         try {
-            List<String> chessData = Files.readAllLines(Paths.get(path));
-            restart();
-            for (int i = 0; i < chessData.size() - 9; i++) {
-                ChessComponent chess1 = getChessboard().getChessComponents()[chessData.get(i + 9).charAt(0) - 48][chessData.get(i + 9).charAt(1) - 48];
-                ChessComponent chess2 = getChessboard().getChessComponents()[chessData.get(i + 9).charAt(2) - 48][chessData.get(i + 9).charAt(3) - 48];
-                if (chessData.get(i + 9).charAt(4) == 'B') {
-                    chessboard.remove(chess1);
-                    chess1 = new BishopChessComponent(chess1.getChessboardPoint(), chess1.getLocation(), ChessColor.BLACK, chessboard.getClickController(), 76);
-                    chessboard.add(chess1);
-                }
-                if (chessData.get(i + 9).charAt(4) == 'b') {
-                    chessboard.remove(chess1);
-                    chess1 = new BishopChessComponent(chess1.getChessboardPoint(), chess1.getLocation(), ChessColor.WHITE, chessboard.getClickController(), 76);
-                    chessboard.add(chess1);
-                }
-                if (chessData.get(i + 9).charAt(4) == 'N') {
-                    chessboard.remove(chess1);
-                    chess1 = new KnightChessComponent(chess1.getChessboardPoint(), chess1.getLocation(), ChessColor.BLACK, chessboard.getClickController(), 76);
-                    chessboard.add(chess1);
-                }
-                if (chessData.get(i + 9).charAt(4) == 'n') {
-                    chessboard.remove(chess1);
-                    chess1 = new KnightChessComponent(chess1.getChessboardPoint(), chess1.getLocation(), ChessColor.WHITE, chessboard.getClickController(), 76);
-                    chessboard.add(chess1);
-                }
-                if (chessData.get(i + 9).charAt(4) == 'Q') {
-                    chessboard.remove(chess1);
-                    chess1 = new QueenChessComponent(chess1.getChessboardPoint(), chess1.getLocation(), ChessColor.BLACK, chessboard.getClickController(), 76);
-                    chessboard.add(chess1);
-                }
-                if (chessData.get(i + 9).charAt(4) == 'q') {
-                    chessboard.remove(chess1);
-                    chess1 = new QueenChessComponent(chess1.getChessboardPoint(), chess1.getLocation(), ChessColor.WHITE, chessboard.getClickController(), 76);
-                    chessboard.add(chess1);
-                }
-                if (chessData.get(i + 9).charAt(4) == 'R') {
-                    chessboard.remove(chess1);
-                    chess1 = new RookChessComponent(chess1.getChessboardPoint(), chess1.getLocation(), ChessColor.BLACK, chessboard.getClickController(), 76);
-                    chessboard.add(chess1);
-                }
-                if (chessData.get(i + 9).charAt(4) == 'r') {
-                    chessboard.remove(chess1);
-                    chess1 = new RookChessComponent(chess1.getChessboardPoint(), chess1.getLocation(), ChessColor.WHITE, chessboard.getClickController(), 76);
-                    chessboard.add(chess1);
-                }
-                chess1.repaint();
-                chess2.repaint();
-                chessboard.move(chess1, chess2);
-                chessboard.swapColor();
-            }
-            if (chessData.get(8).equals("b")) {
-                chessboard.setCurrentColor(ChessColor.BLACK);
-                chessGameFrame.changePlayer("Black");
-            } else if (chessData.get(8).equals("w")) {
-                chessboard.setCurrentColor(ChessColor.WHITE);
-                chessGameFrame.changePlayer("White");
-            }
-            for(int i=0;i<chessData.size()-9;i++){
-                chessboard.step.add(chessData.get(i+9));
+            replayed = record.replay();
+        } catch (IllegalArgumentException e) {
+            JOptionPane.showConfirmDialog(null, "错误代码:104", "提示", JOptionPane.DEFAULT_OPTION);
+            return false;
+        }
+        // 载入之后倒计时结束换过手时，行棋方以当前为准
+        int side = chessboard.getPosition().getSideToMove();
+        chessboard.getPosition().copyFrom(replayed);
+        chessboard.getPosition().setSideToMove(side);
+        return true;
+    }
+
+    /**
+     * 启动时调用：上次没有正常退出时恢复自动保存的棋局
+     *
+     * @return 是否恢复了棋局
+     */
+    public boolean resumeAutosave() {
+        GameRecord record = autosave.recover();
+        if (record == null) {
+            return false;
+        }
+        System.out.printf("Autosave: resumed a game of %d moves\n", record.getMoveCount());
+        loadRecord(record);
+        return true;
+    }
+
+    /**
+     * 正常退出时调用：写完自动保存的记录后删除，下次启动从新棋局开始
+     */
+    public void closeAutosave() {
+        autosave.close(true);
+    }
+
+    public ChessColor getComputerColor() {
+        return computerColor;
+    }
+
+    public void setComputerColor(ChessColor computerColor) {
+        this.computerColor = computerColor;
+        cancelComputerMove();
+        onTurnChanged();
+    }
+
+    public boolean isComputerTurn() {
+        return computerColor != ChessColor.NONE && chessboard.getCurrentColor() == computerColor;
+    }
+
+    /**
+     * 行棋方改变时调用。推迟到事件队列中执行，这样载入棋局时连续换手只会触发一次搜索。
+     * 升变对话框开着时什么也不做，选择完成后会再调用一次
+     */
+    public void onTurnChanged() {
+        SwingUtilities.invokeLater(this::startTurn);
+    }
+
+    private void startTurn() {
+        if (chessboard.isPromoting()) {
+            return;
+        }
+        autosave.update(chessboard.step, chessboard.getPosition());
+        if (hintKey != chessboard.getPositionKey()) {
+            hintVisible = false;
+            chessGameFrame.showHint("");
+        }
+        if (isComputerTurn()) {
+            hintKey = 0;
+            hintService.cancel();
+            startComputerMove();
+        } else if (hintKey != chessboard.getPositionKey()) {
+            hintKey = chessboard.getPositionKey();
+            hintService.start(chessboard.getPosition());
+        }
+    }
+
+    /**
+     * 显示后台分析到目前为止的最佳走法和变例，之后分析加深时自动刷新，直到下一步棋
+     */
+    public void showHint() {
+        if (isComputerTurn()) {
+            return;
+        }
+        hintVisible = true;
+        HintService.Hint hint = hintService.getHint(chessboard.getPositionKey());
+        chessGameFrame.showHint(hint == null ? "HINT: thinking..." : "HINT: " + hint);
+    }
+
+    private void cancelComputerMove() {
+        searchGeneration.incrementAndGet();
+        searching = false;
+        engine.stop();
+    }
+
+    private void startComputerMove() {
+        ChessPosition position = new ChessPosition(chessboard.getPosition());
+        long key = position.getKey();
+        if (searching && searchingKey == key) {
+            return;
+        }
+        cancelComputerMove();
+        int generation = searchGeneration.get();
+        searching = true;
+        searchingKey = key;
+        int bookMove = book == null ? Move.NONE : book.pick(position, random);
+        if (bookMove != Move.NONE) {
+            System.out.printf("Computer: book move %s\n", Move.toStep(bookMove, position.getSideToMove()));
+            SwingUtilities.invokeLater(() -> applyComputerMove(generation, key, bookMove));
+            return;
+        }
+        TimeManager timeManager = TimeManager.forClock(chessGameFrame.getTimerTask().getTime(), MAX_THINK_MILLIS);
+        // 停止标志在事件线程上创建，搜索线程还没开始时的取消也不会丢失，过时的搜索不会占着引擎线程
+        ChessEngine.StopToken token = engine.prepare();
+        engineExecutor.execute(() -> {
+            if (generation != searchGeneration.get()) {
+                return;
             }
-        } catch (IOException e) {
-            e.printStackTrace();
+            ChessEngine.SearchResult result = engine.search(position, ChessEngine.MAX_PLY, 0, timeManager, token);
+            System.out.printf("Computer: %s\n", result);
+            SwingUtilities.invokeLater(() -> applyComputerMove(generation, key, result.bestMove));
+        });
+    }
+
+    private void applyComputerMove(int generation, long key, int move) {
+        if (generation != searchGeneration.get()) {
+            return;
+        }
+        searching = false;
+        if (move != Move.NONE && isComputerTurn() && chessboard.getPositionKey() == key) {
+            chessboard.playMove(move);
         }
     }
 
     public void restart() {
+        chessboard.completePromotion();
+        pendingReplay = null;
         chessboard.initChessboard();
         chessboard.setCurrentColor(ChessColor.WHITE);
         chessGameFrame.changePlayer(chessboard.getCurrentColor().getName());
         chessboard.repaint();
         getChessboard().step = new ArrayList<>();
         chessGameFrame.getTimerTask().resetTime();
+        onTurnChanged();
     }
 
     public void playBGM() {
@@ -139,66 +318,24 @@ public class GameController extends Component {
         String path;
         JFileChooser fileChooser = new JFileChooser();
         fileChooser.setCurrentDirectory(new File("."));
-        fileChooser.setSelectedFile(new File("save.txt"));
+        fileChooser.setSelectedFile(new File("save." + GameRecord.EXTENSION));
         int result = fileChooser.showSaveDialog(this);
         if (result == JFileChooser.APPROVE_OPTION) {
             File file = fileChooser.getSelectedFile();
             path = file.getAbsolutePath();
-            BufferedWriter writer = new BufferedWriter(new FileWriter(path));
-            ChessComponent[][] board = getChessboard().getChessComponents();
-            for (int i = 0; i < 8; i++) {
-                for (int j = 0; j < 8; j++) {
-                    if (board[i][j] instanceof BishopChessComponent) {
-                        if (board[i][j].getChessColor() == ChessColor.WHITE) {
-                            writer.write("b");
-                        } else {
-                            writer.write("B");
-                        }
-                    }
-                    if (board[i][j] instanceof KingChessComponent) {
-                        if (board[i][j].getChessColor() == ChessColor.WHITE) {
-                            writer.write("k");
-                        } else {
-                            writer.write("K");
-                        }
-                    }
-                    if (board[i][j] instanceof KnightChessComponent) {
-                        if (board[i][j].getChessColor() == ChessColor.WHITE) {
-                            writer.write("n");
-                        } else {
-                            writer.write("N");
-                        }
-                    }
-                    if (board[i][j] instanceof PawnChessComponentBlack) {
-                        writer.write("P");
-                    }
-                    if (board[i][j] instanceof PawnChessComponentWhite) {
-                        writer.write("p");
-                    }
-                    if (board[i][j] instanceof QueenChessComponent) {
-                        if (board[i][j].getChessColor() == ChessColor.WHITE) {
-                            writer.write("q");
-                        } else {
-                            writer.write("Q");
-                        }
-                    }
-                    if (board[i][j] instanceof RookChessComponent) {
-                        if (board[i][j].getChessColor() == ChessColor.WHITE) {
-                            writer.write("r");
-                        } else {
-                            writer.write("R");
-                        }
-                    }
-                    if (board[i][j] instanceof EmptySlotComponent) {
-                        writer.write("_");
-                    }
+            if (!path.endsWith(".txt")) {
+                // 除非选择.txt，否则保存为二进制存档
+                try {
+                    GameRecord.fromSteps(chessboard.getPosition(), getChessboard().step).write(Paths.get(path));
+                } catch (IllegalArgumentException e) {
+                    throw new IOException(e);
                 }
-                writer.write("\n");
+                return;
             }
-            if (chessboard.getCurrentColor() == ChessColor.WHITE) {
-                writer.write("w\n");
-            } else {
-                writer.write("b\n");
+            BufferedWriter writer = new BufferedWriter(new FileWriter(path));
+            for (String line : getChessboard().toPosition().toSaveLines()) {
+                writer.write(line);
+                writer.write("\n");
             }
             for (int i = 0; i < getChessboard().step.size(); i++) {
                 writer.write(String.format("%s\n", getChessboard().step.get(i)));
@@ -212,64 +349,24 @@ public class GameController extends Component {
     }
 
     public void undo() {
-        int size = getChessboard().step.size();
-        if (size > 0) {
-            getChessboard().step.remove(getChessboard().step.get(size - 1));
+        chessboard.completePromotion();
+        cancelComputerMove();
+        if (!ensureHistory()) {
+            onTurnChanged();
+            return;
         }
-        chessboard.initChessboard();
-        chessboard.setCurrentColor(ChessColor.WHITE);
-        chessGameFrame.changePlayer(chessboard.getCurrentColor().getName());
-        chessboard.repaint();
-
-        for (int i = 0; i < getChessboard().step.size(); i++) {
-            ChessComponent chess1 = getChessboard().getChessComponents()[getChessboard().step.get(i).charAt(0) - 48][getChessboard().step.get(i).charAt(1) - 48];
-            ChessComponent chess2 = getChessboard().getChessComponents()[getChessboard().step.get(i).charAt(2) - 48][getChessboard().step.get(i).charAt(3) - 48];
-            if (getChessboard().step.get(i).charAt(4) == 'B') {
-                chessboard.remove(chess1);
-                chess1 = new BishopChessComponent(chess1.getChessboardPoint(), chess1.getLocation(), ChessColor.BLACK, chessboard.getClickController(), 76);
-                chessboard.add(chess1);
+        // 对电脑时连同电脑的应着一起撤销，回到玩家行棋
+        do {
+            int size = getChessboard().step.size();
+            if (size == 0 || !chessboard.undoLastMove()) {
+                break;
             }
-            if (getChessboard().step.get(i).charAt(4) == 'b') {
-                chessboard.remove(chess1);
-                chess1 = new BishopChessComponent(chess1.getChessboardPoint(), chess1.getLocation(), ChessColor.WHITE, chessboard.getClickController(), 76);
-                chessboard.add(chess1);
-            }
-            if (getChessboard().step.get(i).charAt(4) == 'N') {
-                chessboard.remove(chess1);
-                chess1 = new KnightChessComponent(chess1.getChessboardPoint(), chess1.getLocation(), ChessColor.BLACK, chessboard.getClickController(), 76);
-                chessboard.add(chess1);
-            }
-            if (getChessboard().step.get(i).charAt(4) == 'n') {
-                chessboard.remove(chess1);
-                chess1 = new KnightChessComponent(chess1.getChessboardPoint(), chess1.getLocation(), ChessColor.WHITE, chessboard.getClickController(), 76);
-                chessboard.add(chess1);
-            }
-            if (getChessboard().step.get(i).charAt(4) == 'Q') {
-                chessboard.remove(chess1);
-                chess1 = new QueenChessComponent(chess1.getChessboardPoint(), chess1.getLocation(), ChessColor.BLACK, chessboard.getClickController(), 76);
-                chessboard.add(chess1);
-            }
-            if (getChessboard().step.get(i).charAt(4) == 'q') {
-                chessboard.remove(chess1);
-                chess1 = new QueenChessComponent(chess1.getChessboardPoint(), chess1.getLocation(), ChessColor.WHITE, chessboard.getClickController(), 76);
-                chessboard.add(chess1);
-            }
-            if (getChessboard().step.get(i).charAt(4) == 'R') {
-                chessboard.remove(chess1);
-                chess1 = new RookChessComponent(chess1.getChessboardPoint(), chess1.getLocation(), ChessColor.BLACK, chessboard.getClickController(), 76);
-                chessboard.add(chess1);
-            }
-            if (getChessboard().step.get(i).charAt(4) == 'r') {
-                chessboard.remove(chess1);
-                chess1 = new RookChessComponent(chess1.getChessboardPoint(), chess1.getLocation(), ChessColor.WHITE, chessboard.getClickController(), 76);
-                chessboard.add(chess1);
-            }
-            chess1.repaint();
-            chess2.repaint();
-            chessboard.move(chess1, chess2);
-            chessboard.swapColor();
-        }
+            getChessboard().step.remove(size - 1);
+        } while (isComputerTurn());
+        chessboard.syncBoard();
+        chessGameFrame.changePlayer(chessboard.getCurrentColor().getName());
         chessGameFrame.getTimerTask().resetTime();
+        onTurnChanged();
     }
 
 }
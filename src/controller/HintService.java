@@ -0,0 +1,148 @@
+package controller;
+
+import model.ChessPosition;
+import model.Move;
+
+import javax.swing.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 这个类在玩家思考时于后台分析当前局面，玩家要提示时直接取出已经算好的结果，不在事件线程上搜索。
+ * <br>
+ * 每次换手调用start重新开始分析，上一次分析随即停止；每完成一次迭代，最新结果通过SwingUtilities.invokeLater交给界面。
+ * 分析在一个守护线程上进行，与电脑对手共用置换表，所以电脑轮到时可以直接用上玩家思考期间的分析。
+ */
+public class HintService {
+    /**
+     * 主要变例最多显示的步数
+     */
+    private static final int MAX_LINE = 8;
+
+    /**
+     * 在事件线程上回调
+     */
+    public interface HintListener {
+        void onHint(Hint hint);
+    }
+
+    /**
+     * 某个局面的分析结果
+     */
+    public static class Hint {
+        public final long key;
+        public final ChessEngine.SearchResult result;
+        public final int[] line;
+        private final int sideToMove;
+
+        Hint(long key, ChessEngine.SearchResult result, int[] line, int sideToMove) {
+            this.key = key;
+            this.result = result;
+            this.line = line;
+            this.sideToMove = sideToMove;
+        }
+
+        /**
+         * @return 主要变例，每步用存档中的"起点行列终点行列"表示，例如"6151 1232"
+         */
+        public String lineText() {
+            StringBuilder builder = new StringBuilder();
+            int color = sideToMove;
+            for (int move : line) {
+                if (builder.length() > 0) {
+                    builder.append(' ');
+                }
+                String step = Move.toStep(move, color);
+                builder.append(Move.promotion(move) == 0 ? step.substring(0, 4) : step);
+                color ^= 1;
+            }
+            return builder.toString();
+        }
+
+        @Override
+        public String toString() {
+            return String.format("depth %d score %d: %s", result.depth, result.score, lineText());
+        }
+    }
+
+    private final ChessEngine engine;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "chess-hint");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AtomicInteger generation = new AtomicInteger();
+    private volatile Hint latest;
+    private HintListener listener;
+
+    /**
+     * @param table 与电脑对手共用的置换表
+     */
+    public HintService(TranspositionTable table) {
+        engine = new ChessEngine(table);
+        // 后台分析不占满全部核心，界面和电脑对手仍然流畅
+        engine.setThreads(Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+    }
+
+    public void setTablebase(EndgameTablebase tablebase) {
+        engine.setTablebase(tablebase);
+    }
+
+    public void setListener(HintListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * 停止之前的分析，开始分析position(会复制一份)，直到下一次start或cancel
+     */
+    public void start(ChessPosition position) {
+        ChessPosition root = new ChessPosition(position);
+        int current = cancel();
+        long key = root.getKey();
+        ChessEngine.StopToken token = engine.prepare();
+        executor.execute(() -> {
+            if (current != generation.get()) {
+                return;
+            }
+            engine.setListener(result -> {
+                if (current != generation.get()) {
+                    return;
+                }
+                Hint hint = new Hint(key, result, engine.principalVariation(root, result.bestMove, MAX_LINE), root.getSideToMove());
+                SwingUtilities.invokeLater(() -> publish(current, hint));
+            });
+            engine.search(root, ChessEngine.MAX_PLY, 0, TimeManager.fixed(0), token);
+        });
+    }
+
+    /**
+     * 停止正在进行的分析并丢弃旧结果
+     *
+     * @return 新的代数
+     */
+    public int cancel() {
+        int current = generation.incrementAndGet();
+        latest = null;
+        engine.stop();
+        return current;
+    }
+
+    /**
+     * @return 对局面key已有的最新分析；还没有完成任何一次迭代时返回null
+     */
+    public Hint getHint(long key) {
+        Hint hint = latest;
+        return hint != null && hint.key == key ? hint : null;
+    }
+
+    private void publish(int current, Hint hint) {
+        if (current != generation.get()) {
+            return;
+        }
+        latest = hint;
+        if (listener != null) {
+            listener.onHint(hint);
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package controller;
+
+import model.ChessPosition;
+import model.Move;
+
+/**
+ * 这个类为一个搜索线程的走法排序打分：置换表走法最先，其次是按MVV-LVA排序的吃子和升变为后，然后是杀手走法，其余安静走法按历史分排序。
+ * <br>
+ * 杀手走法和历史分都是在搜索中学到的，每个搜索线程各有一份，不需要同步。
+ */
+class MoveOrdering {
+    private static final int TT_MOVE = 1 << 30;
+    private static final int CAPTURE = 1 << 28;
+    private static final int KILLER = 1 << 26;
+    private static final int HISTORY_MAX = 1 << 20;
+    /**
+     * MVV-LVA中被吃棋子的价值等级，按类型下标：兵、马、象、车、后、王
+     */
+    private static final int[] VICTIM_RANK = {1, 3, 3, 5, 9, 20};
+
+    private final int[][] killers = new int[ChessEngine.MAX_PLY][2];
+    private final int[][] history = new int[12][64];
+
+    /**
+     * 给moves中前count个走法打分，分数写入scores的对应位置
+     */
+    void score(ChessPosition position, int[] moves, int[] scores, int count, int ttMove, int ply) {
+        int[] killer = killers[ply];
+        for (int i = 0; i < count; i++) {
+            int move = moves[i];
+            if (move == ttMove) {
+                scores[i] = TT_MOVE;
+            } else if (isTactical(position, move)) {
+                scores[i] = CAPTURE + mvvLva(position, move);
+            } else if (move == killer[0]) {
+                scores[i] = KILLER + 1;
+            } else if (move == killer[1]) {
+                scores[i] = KILLER;
+            } else {
+                scores[i] = history[position.pieceAt(Move.from(move))][Move.to(move)];
+            }
+        }
+    }
+
+    /**
+     * 只按MVV-LVA给吃子走法打分，静态搜索使用
+     */
+    static void scoreCaptures(ChessPosition position, int[] moves, int[] scores, int count) {
+        for (int i = 0; i < count; i++) {
+            scores[i] = mvvLva(position, moves[i]);
+        }
+    }
+
+    /**
+     * 被吃的棋子越值钱越靠前，同样的被吃棋子用越便宜的棋子去吃越靠前；升变为后另加后的价值
+     */
+    static int mvvLva(ChessPosition position, int move) {
+        int victim = position.pieceAt(Move.to(move));
+        int score = victim == ChessPosition.EMPTY ? 0 : VICTIM_RANK[ChessPosition.typeOf(victim)] * 16;
+        if (Move.promotion(move) == ChessPosition.QUEEN) {
+            score += VICTIM_RANK[ChessPosition.QUEEN] * 16;
+        }
+        return score - ChessPosition.typeOf(position.pieceAt(Move.from(move)));
+    }
+
+    /**
+     * @return 走法是否为吃子或升变为后；低升变按安静走法处理
+     */
+    static boolean isTactical(ChessPosition position, int move) {
+        return position.pieceAt(Move.to(move)) != ChessPosition.EMPTY || Move.promotion(move) == ChessPosition.QUEEN;
+    }
+
+    /**
+     * 把index到count-1中分数最高的走法交换到index位置并返回它，只排序实际用到的部分
+     */
+    static int pick(int[] moves, int[] scores, int index, int count) {
+        int best = index;
+        for (int i = index + 1; i < count; i++) {
+            if (scores[i] > scores[best]) {
+                best = i;
+            }
+        }
+        int move = moves[best];
+        moves[best] = moves[index];
+        moves[index] = move;
+        int score = scores[best];
+        scores[best] = scores[index];
+        scores[index] = score;
+        return move;
+    }
+
+    /**
+     * 安静走法造成beta截断时调用(局面应已撤销该走法)：记为本层的杀手走法，并按深度的平方增加历史分
+     */
+    void onCutoff(ChessPosition position, int move, int ply, int depth) {
+        if (isTactical(position, move)) {
+            return;
+        }
+        int[] killer = killers[ply];
+        if (killer[0] != move) {
+            killer[1] = killer[0];
+            killer[0] = move;
+        }
+        int[] entry = history[position.pieceAt(Move.from(move))];
+        entry[Move.to(move)] += depth * depth;
+        if (entry[Move.to(move)] >= HISTORY_MAX) {
+            for (int[] row : history) {
+                for (int i = 0; i < row.length; i++) {
+                    row[i] >>= 1;
+                }
+            }
+        }
+    }
+}
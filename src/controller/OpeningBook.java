@@ -0,0 +1,208 @@
+package controller;
+
+import model.ChessPosition;
+import model.Move;
+import model.MoveGenerator;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * 这个类是开局库：一个按Zobrist哈希排序的二进制文件，每条记录12字节，依次为局面哈希(8字节)、走法(2字节)和权重(2字节)。
+ * <br>
+ * 文件用FileChannel.map映射到内存，查询时在映射区上二分查找，不把记录读进堆内存，同一局面的记录相邻存放。
+ * <br>
+ * 用法：java controller.OpeningBook &lt;存档目录&gt; &lt;输出文件&gt; [最大步数]，从resource/格式的存档生成开局库。
+ */
+public class OpeningBook {
+    public static final int RECORD_SIZE = 12;
+    /**
+     * 默认只收录每局前这么多步
+     */
+    public static final int DEFAULT_MAX_PLY = 16;
+
+    private final MappedByteBuffer buffer;
+    private final int records;
+
+    private OpeningBook(MappedByteBuffer buffer) {
+        this.buffer = buffer;
+        this.records = buffer.capacity() / RECORD_SIZE;
+    }
+
+    /**
+     * 映射开局库文件，映射建立后文件通道即可关闭
+     *
+     * @throws IOException 文件不存在、无法读取或长度不是记录大小的整数倍
+     */
+    public static OpeningBook open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() % RECORD_SIZE != 0 || channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("not an opening book: " + path);
+            }
+            return new OpeningBook(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    public int size() {
+        return records;
+    }
+
+    /**
+     * @return 局面key在库中的全部走法，没有时返回空数组
+     */
+    public int[] moves(long key) {
+        int first = lowerBound(key);
+        int last = first;
+        while (last < records && keyAt(last) == key) {
+            last++;
+        }
+        int[] moves = new int[last - first];
+        for (int i = first; i < last; i++) {
+            moves[i - first] = moveAt(i);
+        }
+        return moves;
+    }
+
+    /**
+     * 按权重随机选一个库中的走法，只返回在position中合法的走法
+     *
+     * @return 选中的走法；局面不在库中时返回Move.NONE
+     */
+    public int pick(ChessPosition position, Random random) {
+        long key = position.getKey();
+        int first = lowerBound(key);
+        int total = 0;
+        for (int i = first; i < records && keyAt(i) == key; i++) {
+            total += weightAt(i);
+        }
+        if (total == 0) {
+            return Move.NONE;
+        }
+        int target = random.nextInt(total);
+        int i = first;
+        while (target >= weightAt(i)) {
+            target -= weightAt(i++);
+        }
+        int move = moveAt(i);
+        // 哈希冲突或库文件与规则不一致时不使用库中的走法
+        int[] legal = new int[MoveGenerator.MAX_MOVES];
+        int count = MoveGenerator.generateLegal(position, legal);
+        for (int j = 0; j < count; j++) {
+            if (legal[j] == move) {
+                return move;
+            }
+        }
+        return Move.NONE;
+    }
+
+    /**
+     * @return 第一条哈希不小于key的记录下标(按无符号比较)
+     */
+    private int lowerBound(long key) {
+        int low = 0, high = records;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (Long.compareUnsigned(keyAt(mid), key) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private long keyAt(int index) {
+        return buffer.getLong(index * RECORD_SIZE);
+    }
+
+    private int moveAt(int index) {
+        return buffer.getShort(index * RECORD_SIZE + 8) & 0xFFFF;
+    }
+
+    private int weightAt(int index) {
+        return buffer.getShort(index * RECORD_SIZE + 10) & 0xFFFF;
+    }
+
+    /**
+     * 从目录中所有存档生成开局库：从初始局面重放每局的前maxPly步，统计每个局面下每种走法出现的次数作为权重。
+     * 重放到不合法的走法时这一局只收录此前的部分。
+     *
+     * @return 写入的记录数
+     */
+    public static int build(Path folder, Path out, int maxPly) throws IOException {
+        Map<Long, Map<Integer, Integer>> counts = new HashMap<>();
+        int[] legal = new int[MoveGenerator.MAX_MOVES];
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(folder, "*.txt")) {
+            for (Path file : files) {
+                List<String> lines = Files.readAllLines(file);
+                ChessPosition position = ChessPosition.initialPosition();
+                for (int i = 9; i < lines.size() && i - 9 < maxPly; i++) {
+                    int move;
+                    try {
+                        move = Move.fromStep(lines.get(i));
+                    } catch (IllegalArgumentException e) {
+                        break;
+                    }
+                    if (!contains(legal, MoveGenerator.generateLegal(position, legal), move)) {
+                        break;
+                    }
+                    counts.computeIfAbsent(position.getKey(), k -> new HashMap<>()).merge(move, 1, Integer::sum);
+                    position.makeMove(move);
+                }
+                System.out.printf("%s: %d moves\n", file.getFileName(), position.getPly());
+            }
+        }
+
+        List<long[]> entries = new ArrayList<>();
+        for (Map.Entry<Long, Map<Integer, Integer>> position : counts.entrySet()) {
+            for (Map.Entry<Integer, Integer> move : position.getValue().entrySet()) {
+                entries.add(new long[]{position.getKey(), move.getKey(), Math.min(move.getValue(), 0xFFFF)});
+            }
+        }
+        // 同一局面内权重大的走法在前
+        entries.sort((a, b) -> a[0] != b[0] ? Long.compareUnsigned(a[0], b[0]) : Long.compare(b[2], a[2]));
+        ByteBuffer data = ByteBuffer.allocate(entries.size() * RECORD_SIZE);
+        for (long[] entry : entries) {
+            data.putLong(entry[0]).putShort((short) entry[1]).putShort((short) entry[2]);
+        }
+        data.flip();
+        try (FileChannel channel = FileChannel.open(out, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (data.hasRemaining()) {
+                channel.write(data);
+            }
+        }
+        return entries.size();
+    }
+
+    private static boolean contains(int[] moves, int count, int move) {
+        for (int i = 0; i < count; i++) {
+            if (moves[i] == move) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.out.println("usage: OpeningBook <save folder> <book file> [max ply]");
+            return;
+        }
+        int maxPly = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_MAX_PLY;
+        int records = build(Paths.get(args[0]), Paths.get(args[1]), maxPly);
+        System.out.printf("%d records written to %s\n", records, args[1]);
+    }
+}
@@ -0,0 +1,183 @@
+package controller;
+
+import model.ChessPosition;
+import model.Move;
+import model.MoveGenerator;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * 这个类统计从某个局面出发走到指定深度的叶子节点数(perft)，作为走法生成的正确性基准和速度基准，不需要界面。
+ * <br>
+ * 只统计合法走法，初始局面前4层的结果应为20、400、8902、197281。
+ * <br>
+ * 用法：java controller.Perft &lt;depth&gt; [存档路径] [-parallel [线程数]] [-divide]
+ * <br>
+ * 没有给出存档时从初始局面开始；存档只读取前9行的棋盘和行棋方。
+ */
+public class Perft {
+    private final ChessPosition position = new ChessPosition();
+    private final int[][] moves;
+
+    /**
+     * @param maxDepth 之后调用count时允许的最大深度，按此预先分配每层的走法缓冲区
+     */
+    public Perft(int maxDepth) {
+        moves = new int[maxDepth + 1][MoveGenerator.MAX_MOVES];
+    }
+
+    /**
+     * @return 从root出发depth步以内的叶子节点数
+     */
+    public long count(ChessPosition root, int depth) {
+        position.copyFrom(root);
+        return count(depth);
+    }
+
+    private long count(int depth) {
+        if (depth == 0) {
+            return 1;
+        }
+        if (isGameOver(position)) {
+            return 0;
+        }
+        int[] buffer = moves[depth];
+        int moveCount = MoveGenerator.generateLegal(position, buffer);
+        if (depth == 1) {
+            return moveCount;
+        }
+        long nodes = 0;
+        for (int i = 0; i < moveCount; i++) {
+            position.makeMove(buffer[i]);
+            nodes += count(depth - 1);
+            position.unmakeMove();
+        }
+        return nodes;
+    }
+
+    /**
+     * 存档可能停在王被吃掉之后，这样的局面不再展开
+     */
+    private static boolean isGameOver(ChessPosition position) {
+        return position.pieces(ChessPosition.WHITE, ChessPosition.KING) == 0
+                || position.pieces(ChessPosition.BLACK, ChessPosition.KING) == 0;
+    }
+
+    /**
+     * 把根节点的每个走法作为一个任务分给ForkJoinPool并行统计
+     *
+     * @param rootCounts 不为null时依次写入每个根走法的节点数，长度至少为MAX_MOVES
+     * @param rootMoves  不为null时依次写入根走法
+     * @return 叶子节点总数
+     */
+    public static long countParallel(ChessPosition root, int depth, ForkJoinPool pool, int[] rootMoves, long[] rootCounts) {
+        int[] buffer = rootMoves != null ? rootMoves : new int[MoveGenerator.MAX_MOVES];
+        if (depth == 0) {
+            return 1;
+        }
+        if (isGameOver(root)) {
+            return 0;
+        }
+        int moveCount = MoveGenerator.generateLegal(root, buffer);
+        List<RootTask> tasks = new ArrayList<>(moveCount);
+        for (int i = 0; i < moveCount; i++) {
+            ChessPosition child = new ChessPosition(root);
+            child.makeMove(buffer[i]);
+            tasks.add(new RootTask(child, depth - 1));
+        }
+        return pool.invoke(new RecursiveTask<Long>() {
+            @Override
+            protected Long compute() {
+                invokeAll(tasks);
+                long nodes = 0;
+                for (int i = 0; i < tasks.size(); i++) {
+                    long n = tasks.get(i).join();
+                    if (rootCounts != null) {
+                        rootCounts[i] = n;
+                    }
+                    nodes += n;
+                }
+                return nodes;
+            }
+        });
+    }
+
+    private static class RootTask extends RecursiveTask<Long> {
+        private static final long serialVersionUID = 1L;
+        private final ChessPosition position;
+        private final int depth;
+
+        RootTask(ChessPosition position, int depth) {
+            this.position = position;
+            this.depth = depth;
+        }
+
+        @Override
+        protected Long compute() {
+            return new Perft(depth).count(position, depth);
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.out.println("usage: Perft <depth> [save file] [-parallel [threads]] [-divide]");
+            return;
+        }
+        int depth = Integer.parseInt(args[0]);
+        ChessPosition root = ChessPosition.initialPosition();
+        int threads = 0;
+        boolean divide = false;
+        for (int i = 1; i < args.length; i++) {
+            if (args[i].equals("-parallel")) {
+                threads = Runtime.getRuntime().availableProcessors();
+                if (i + 1 < args.length && args[i + 1].matches("\\d+")) {
+                    threads = Integer.parseInt(args[++i]);
+                }
+            } else if (args[i].equals("-divide")) {
+                divide = true;
+            } else {
+                root = ChessPosition.fromSaveLines(Files.readAllLines(Paths.get(args[i])));
+            }
+        }
+        System.out.print(root);
+
+        int[] rootMoves = new int[MoveGenerator.MAX_MOVES];
+        long[] rootCounts = new long[MoveGenerator.MAX_MOVES];
+        long start = System.nanoTime();
+        long nodes;
+        if (threads > 0) {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            nodes = countParallel(root, depth, pool, rootMoves, rootCounts);
+            pool.shutdown();
+        } else if (divide && depth > 0) {
+            Perft perft = new Perft(depth);
+            int moveCount = MoveGenerator.generateLegal(root, rootMoves);
+            nodes = 0;
+            for (int i = 0; i < moveCount; i++) {
+                root.makeMove(rootMoves[i]);
+                rootCounts[i] = perft.count(root, depth - 1);
+                root.unmakeMove();
+                nodes += rootCounts[i];
+            }
+        } else {
+            nodes = new Perft(depth).count(root, depth);
+        }
+        long elapsed = System.nanoTime() - start;
+
+        if (divide && depth > 0 && !isGameOver(root)) {
+            int moveCount = MoveGenerator.generateLegal(root, rootMoves);
+            for (int i = 0; i < moveCount; i++) {
+                System.out.printf("%s: %d\n", Move.toStep(rootMoves[i], root.getSideToMove()), rootCounts[i]);
+            }
+        }
+        double seconds = elapsed / 1e9;
+        System.out.printf("depth %d: %d nodes in %.3f s (%.0f nps)%s\n", depth, nodes, seconds,
+                seconds > 0 ? nodes / seconds : 0, threads > 0 ? ", " + threads + " threads" : "");
+    }
+}
@@ -0,0 +1,398 @@
+package controller;
+
+import model.Attacks;
+import model.ChessPosition;
+import model.GameRecord;
+import model.Move;
+import model.MoveGenerator;
+import model.SaveFileReader;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+/**
+ * 这个类实现PGN使用的标准代数记法(SAN)，并提供PGN和本项目存档之间互相转换的命令行工具。
+ * <br>
+ * 坐标与UciEngine一致，初始局面正好是国际象棋的标准初始局面。本项目没有王车易位和吃过路兵，含有这些走法的棋局导入时跳过。
+ * <br>
+ * 用法：
+ * <br>
+ * java controller.Pgn import &lt;PGN文件&gt; &lt;输出文件&gt; [-threads n]：每局写成一条GameRecord，依次接在输出文件中；
+ * 多线程时按棋局边界把输入切成批交给线程池解析，输出顺序与输入一致。
+ * <br>
+ * java controller.Pgn export &lt;存档目录或GameRecord文件&gt; &lt;PGN文件&gt;：文本存档(.txt)和GameRecord文件都可以。
+ */
+public final class Pgn {
+    private static final String PIECE_LETTERS = " NBRQK";
+    /**
+     * 多线程导入时每个任务解析的棋局数
+     */
+    private static final int BATCH_GAMES = 256;
+
+    private Pgn() {
+    }
+
+    /**
+     * 生成走法的SAN。同类棋子能走到同一格时按列、行或两者区分，只在合法走法之间区分(走法本身不合法时在全部走法之间区分)
+     *
+     * @param move   行棋方在position中的走法
+     * @param buffer 走法缓冲区，长度至少为MAX_MOVES
+     */
+    public static String toSan(ChessPosition position, int move, int[] buffer) {
+        int from = Move.from(move), to = Move.to(move);
+        int piece = position.pieceAt(from);
+        int type = ChessPosition.typeOf(piece);
+        boolean capture = position.pieceAt(to) != ChessPosition.EMPTY;
+        StringBuilder san = new StringBuilder(8);
+        if (type == ChessPosition.PAWN) {
+            if (capture) {
+                san.append(UciEngine.squareName(from).charAt(0)).append('x');
+            }
+            san.append(UciEngine.squareName(to));
+            if (Move.promotion(move) != 0) {
+                san.append('=').append(PIECE_LETTERS.charAt(Move.promotion(move)));
+            }
+        } else {
+            san.append(PIECE_LETTERS.charAt(type));
+            boolean legalOnly = position.isLegal(move);
+            boolean ambiguous = false, sameFile = false, sameRank = false;
+            // 同类棋子中能走到to的，就是从to反查攻击者得到的
+            long others = position.attackersTo(to, position.occupancy()) & position.pieces(piece) & ~(1L << from);
+            for (; others != 0; others &= others - 1) {
+                int otherFrom = Long.numberOfTrailingZeros(others);
+                if (legalOnly && !position.isLegal(Move.of(otherFrom, to))) {
+                    continue;
+                }
+                ambiguous = true;
+                sameFile |= ChessPosition.colOf(otherFrom) == ChessPosition.colOf(from);
+                sameRank |= ChessPosition.rowOf(otherFrom) == ChessPosition.rowOf(from);
+            }
+            if (ambiguous) {
+                String name = UciEngine.squareName(from);
+                if (!sameFile) {
+                    san.append(name.charAt(0));
+                } else if (!sameRank) {
+                    san.append(name.charAt(1));
+                } else {
+                    san.append(name);
+                }
+            }
+            if (capture) {
+                san.append('x');
+            }
+            san.append(UciEngine.squareName(to));
+        }
+        position.makeMove(move);
+        if (position.isInCheck(position.getSideToMove())) {
+            san.append(MoveGenerator.generateLegal(position, buffer) == 0 ? '#' : '+');
+        }
+        position.unmakeMove();
+        return san.toString();
+    }
+
+    /**
+     * 解析SAN，忽略结尾的+#!?，升变可以写成"e8=Q"或"e8Q"，没有写升变的兵走到底线视为升变为后
+     *
+     * @return 行棋方在position中对应的走法；走不出来、有歧义或是王车易位时返回Move.NONE
+     */
+    public static int parseSan(ChessPosition position, String san) {
+        int end = san.length();
+        while (end > 0 && "+#!?".indexOf(san.charAt(end - 1)) >= 0) {
+            end--;
+        }
+        String text = san.substring(0, end);
+        int promotion = 0;
+        int equals = text.indexOf('=');
+        if (equals >= 0 && equals + 1 < text.length()) {
+            promotion = PIECE_LETTERS.indexOf(text.charAt(equals + 1));
+            text = text.substring(0, equals);
+        } else if (text.length() > 2 && Character.isLowerCase(text.charAt(0)) && "NBRQ".indexOf(text.charAt(text.length() - 1)) >= 0) {
+            promotion = PIECE_LETTERS.indexOf(text.charAt(text.length() - 1));
+            text = text.substring(0, text.length() - 1);
+        }
+        if (text.length() < 2 || promotion < 0 || promotion == ChessPosition.KING) {
+            return Move.NONE;
+        }
+        int to = UciEngine.parseSquare(text.substring(text.length() - 2));
+        if (to < 0) {
+            return Move.NONE;
+        }
+        int type = ChessPosition.PAWN, start = 0;
+        if ("NBRQK".indexOf(text.charAt(0)) >= 0) {
+            type = PIECE_LETTERS.indexOf(text.charAt(0));
+            start = 1;
+        }
+        int fromCol = -1, fromRow = -1;
+        for (int i = start; i < text.length() - 2; i++) {
+            char c = text.charAt(i);
+            if (c >= 'a' && c <= 'h') {
+                fromCol = 7 - (c - 'a');
+            } else if (c >= '1' && c <= '8') {
+                fromRow = '8' - c;
+            } else if (c != 'x' && c != ':') {
+                return Move.NONE;
+            }
+        }
+        int side = position.getSideToMove();
+        int target = position.pieceAt(to);
+        if (target != ChessPosition.EMPTY && ChessPosition.colorOf(target) == side) {
+            return Move.NONE;
+        }
+        boolean lastRow = ChessPosition.rowOf(to) == 0 || ChessPosition.rowOf(to) == 7;
+        if (type == ChessPosition.PAWN && lastRow && promotion == 0) {
+            promotion = ChessPosition.QUEEN;
+        } else if ((type != ChessPosition.PAWN || !lastRow) && promotion != 0) {
+            return Move.NONE;
+        }
+        // 不生成全部走法，只从目标格反查可能的起点
+        long candidates;
+        if (type != ChessPosition.PAWN) {
+            candidates = position.attackersTo(to, position.occupancy()) & position.pieces(side, type);
+        } else if (target != ChessPosition.EMPTY) {
+            candidates = Attacks.pawnAttacks(side ^ 1, to) & position.pieces(side, ChessPosition.PAWN);
+        } else {
+            candidates = pawnPushOrigins(position, side, to);
+        }
+        int found = Move.NONE, matches = 0, legalFound = Move.NONE, legalMatches = 0;
+        for (; candidates != 0; candidates &= candidates - 1) {
+            int from = Long.numberOfTrailingZeros(candidates);
+            if (fromCol >= 0 && ChessPosition.colOf(from) != fromCol || fromRow >= 0 && ChessPosition.rowOf(from) != fromRow) {
+                continue;
+            }
+            int move = Move.of(from, to, promotion);
+            matches++;
+            found = move;
+            if (position.isLegal(move)) {
+                legalMatches++;
+                legalFound = move;
+            }
+        }
+        // SAN只在合法走法之间区分，伪合法的同类走法不算歧义
+        if (matches == 1) {
+            return found;
+        }
+        return legalMatches == 1 ? legalFound : Move.NONE;
+    }
+
+    /**
+     * @return 兵直走到空格子to的起点：前一格，或者从起始行走两格时的后两格
+     */
+    private static long pawnPushOrigins(ChessPosition position, int side, int to) {
+        long pawns = position.pieces(side, ChessPosition.PAWN);
+        // 白兵向第0行前进，起点在to的下一行；黑兵相反
+        int step = side == ChessPosition.WHITE ? 8 : -8;
+        int one = to + step;
+        if (one < 0 || one >= 64) {
+            return 0;
+        }
+        if ((pawns & 1L << one) != 0) {
+            return 1L << one;
+        }
+        int startRow = side == ChessPosition.WHITE ? 6 : 1;
+        int two = one + step;
+        if (position.pieceAt(one) == ChessPosition.EMPTY && two >= 0 && two < 64
+                && ChessPosition.rowOf(two) == startRow && (pawns & 1L << two) != 0) {
+            return 1L << two;
+        }
+        return 0;
+    }
+
+    /**
+     * 一批棋局解析后的结果：依次接好的GameRecord字节和出错信息
+     */
+    private static class Batch {
+        final ByteArrayOutputStream data = new ByteArrayOutputStream();
+        final List<String> errors = new ArrayList<>();
+        int games;
+    }
+
+    /**
+     * 解析reader中的全部棋局，逐局写到out；firstGame是第一局的序号，只用于出错信息
+     *
+     * @return 成功导入的棋局数
+     */
+    private static int convert(Reader reader, int firstGame, OutputStream out, List<String> errors) throws IOException {
+        PgnReader pgn = new PgnReader(reader);
+        // GameRecord.write每局都会flush，先写进内存再整块交给out
+        ByteArrayOutputStream record = new ByteArrayOutputStream(512);
+        PgnReader.Game game;
+        int games = 0;
+        for (int index = firstGame; (game = pgn.next()) != null; index++) {
+            if (game.error != null) {
+                errors.add("game " + index + ": " + game.error);
+                continue;
+            }
+            record.reset();
+            game.record.write(record);
+            record.writeTo(out);
+            games++;
+        }
+        return games;
+    }
+
+    private static Batch convert(String text, int firstGame) throws IOException {
+        Batch batch = new Batch();
+        batch.games = convert(new StringReader(text), firstGame, batch.data, batch.errors);
+        return batch;
+    }
+
+    /**
+     * 按棋局边界切分：标签行出现在着法之后时开始新的一局。每次读出最多BATCH_GAMES局的原文
+     *
+     * @return 这一批的原文，输入结束时返回null
+     */
+    private static String readBatch(BufferedReader reader, String[] pending, int[] games) throws IOException {
+        StringBuilder text = new StringBuilder(BATCH_GAMES * 1024);
+        int count = 0;
+        boolean movetext = false;
+        String line = pending[0];
+        pending[0] = null;
+        if (line == null) {
+            line = reader.readLine();
+        }
+        for (; line != null; line = reader.readLine()) {
+            boolean tag = line.startsWith("[");
+            if (tag && movetext) {
+                movetext = false;
+                if (++count == BATCH_GAMES) {
+                    pending[0] = line;
+                    break;
+                }
+            } else if (!tag && !line.trim().isEmpty()) {
+                movetext = true;
+            }
+            text.append(line).append('\n');
+        }
+        games[0] = count + (movetext ? 1 : 0);
+        return text.length() == 0 ? null : text.toString();
+    }
+
+    public static void importPgn(Path input, Path output, int threads) throws IOException, InterruptedException {
+        long start = System.currentTimeMillis();
+        long games = 0, errors = 0;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(Files.newInputStream(input), StandardCharsets.ISO_8859_1), 1 << 20);
+             OutputStream out = new BufferedOutputStream(Files.newOutputStream(output), 1 << 20)) {
+            if (threads <= 1) {
+                List<String> messages = new ArrayList<>();
+                games = convert(reader, 1, out, messages);
+                messages.forEach(System.out::println);
+                errors = messages.size();
+            } else {
+                ExecutorService pool = Executors.newFixedThreadPool(threads);
+                ArrayDeque<Future<Batch>> pending = new ArrayDeque<>();
+                String[] pendingLine = new String[1];
+                int[] batchGames = new int[1];
+                int firstGame = 1;
+                try {
+                    String text;
+                    while ((text = readBatch(reader, pendingLine, batchGames)) != null) {
+                        String batchText = text;
+                        int batchFirst = firstGame;
+                        pending.add(pool.submit(() -> convert(batchText, batchFirst)));
+                        firstGame += batchGames[0];
+                        // 最多积压几批，按提交顺序写出，内存与文件大小无关
+                        if (pending.size() >= threads * 2) {
+                            Batch batch = pending.poll().get();
+                            batch.data.writeTo(out);
+                            batch.errors.forEach(System.out::println);
+                            games += batch.games;
+                            errors += batch.errors.size();
+                        }
+                    }
+                    while (!pending.isEmpty()) {
+                        Batch batch = pending.poll().get();
+                        batch.data.writeTo(out);
+                        batch.errors.forEach(System.out::println);
+                        games += batch.games;
+                        errors += batch.errors.size();
+                    }
+                } catch (ExecutionException e) {
+                    throw new IOException(e.getCause());
+                } finally {
+                    pool.shutdownNow();
+                }
+            }
+        }
+        double seconds = Math.max(1, System.currentTimeMillis() - start) / 1000.0;
+        System.out.printf("%d games imported, %d skipped in %.1f s (%.0f games/s, %.1f MB/s)\n", games, errors, seconds,
+                (games + errors) / seconds, Files.size(input) / 1e6 / seconds);
+    }
+
+    public static void exportPgn(Path input, Path output) throws IOException {
+        List<Path> files = new ArrayList<>();
+        if (Files.isDirectory(input)) {
+            try (Stream<Path> stream = Files.list(input)) {
+                stream.filter(Files::isRegularFile).sorted().forEach(files::add);
+            }
+        } else {
+            files.add(input);
+        }
+        int round = 0;
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(output), StandardCharsets.UTF_8), 1 << 20)) {
+            PgnWriter writer = new PgnWriter(out);
+            for (Path file : files) {
+                if (file.toString().endsWith(".txt")) {
+                    try {
+                        writer.write(tags(file, ++round), SaveFileReader.read(file));
+                    } catch (SaveFileReader.FormatException e) {
+                        System.out.printf("%s: %s\n", file.getFileName(), e.getMessage());
+                    }
+                    continue;
+                }
+                // GameRecord文件可能依次接着多局(如import的输出)
+                try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+                    while (true) {
+                        in.mark(1);
+                        if (in.read() < 0) {
+                            break;
+                        }
+                        in.reset();
+                        writer.write(tags(file, ++round), GameRecord.read(in));
+                    }
+                } catch (IOException e) {
+                    System.out.printf("%s: %s\n", file.getFileName(), e.getMessage());
+                }
+            }
+        }
+        System.out.printf("%d games written to %s\n", round, output);
+    }
+
+    private static Map<String, String> tags(Path file, int round) {
+        Map<String, String> tags = new LinkedHashMap<>();
+        tags.put("Event", file.getFileName().toString());
+        tags.put("Round", String.valueOf(round));
+        return tags;
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 3 || !args[0].equals("import") && !args[0].equals("export")) {
+            System.out.println("usage: Pgn import <pgn file> <output file> [-threads n]");
+            System.out.println("       Pgn export <save folder or record file> <pgn file>");
+            return;
+        }
+        if (args[0].equals("export")) {
+            exportPgn(Paths.get(args[1]), Paths.get(args[2]));
+            return;
+        }
+        int threads = 1;
+        for (int i = 3; i < args.length; i++) {
+            if (args[i].equals("-threads") && i + 1 < args.length) {
+                threads = Integer.parseInt(args[++i]);
+            }
+        }
+        importPgn(Paths.get(args[1]), Paths.get(args[2]), threads);
+    }
+}
@@ -0,0 +1,224 @@
+package controller;
+
+import model.ChessPosition;
+import model.GameRecord;
+import model.Move;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 这个类逐局读取PGN棋谱，边读边在ChessPosition上解析SAN走法，内存只与当前这一局的长度有关，可以读任意大的文件。
+ * <br>
+ * 注释、变着、NAG和回合号都跳过；空着"--"表示不走棋直接换手。一局出错(非法走法、王车易位、非初始局面的FEN)时
+ * 这一局的error不为null，读取继续到下一局。
+ */
+public class PgnReader {
+    /**
+     * 读到的一局棋
+     */
+    public static class Game {
+        public final Map<String, String> tags;
+        /**
+         * 从初始局面开始的全部走法和最终局面，出错时为null
+         */
+        public final GameRecord record;
+        public final String result;
+        public final String error;
+
+        Game(Map<String, String> tags, GameRecord record, String result, String error) {
+            this.tags = tags;
+            this.record = record;
+            this.result = result;
+            this.error = error;
+        }
+    }
+
+    private final BufferedReader reader;
+    private String pendingLine;
+    private int lineNumber;
+
+    private Map<String, String> tags;
+    private ChessPosition position;
+    private int[] moves = new int[256];
+    private int moveCount;
+    private boolean movetext;
+    private boolean inComment;
+    private int variationDepth;
+    private String error;
+    private String result;
+
+    public PgnReader(Reader in) {
+        reader = in instanceof BufferedReader ? (BufferedReader) in : new BufferedReader(in, 1 << 16);
+    }
+
+    /**
+     * @return 下一局棋，没有更多棋局时返回null
+     */
+    public Game next() throws IOException {
+        tags = new LinkedHashMap<>();
+        position = null;
+        moveCount = 0;
+        movetext = false;
+        inComment = false;
+        variationDepth = 0;
+        error = null;
+        result = null;
+        boolean started = false;
+        String line;
+        while ((line = readLine()) != null) {
+            if (inComment) {
+                int end = line.indexOf('}');
+                if (end < 0) {
+                    continue;
+                }
+                line = line.substring(end + 1);
+                inComment = false;
+            }
+            String trimmed = line.trim();
+            if (trimmed.isEmpty() || trimmed.charAt(0) == '%') {
+                continue;
+            }
+            started = true;
+            if (trimmed.charAt(0) == '[' && variationDepth == 0) {
+                if (movetext) {
+                    // 上一局没有结果标记就开始了下一局
+                    pendingLine = line;
+                    lineNumber--;
+                    return finish();
+                }
+                parseTag(trimmed);
+                continue;
+            }
+            if (!movetext) {
+                startMovetext();
+            }
+            parseMovetext(trimmed);
+            if (result != null) {
+                return finish();
+            }
+        }
+        return started ? finish() : null;
+    }
+
+    private String readLine() throws IOException {
+        String line = pendingLine;
+        pendingLine = null;
+        if (line == null) {
+            line = reader.readLine();
+        }
+        if (line != null) {
+            lineNumber++;
+        }
+        return line;
+    }
+
+    private void parseTag(String line) {
+        int space = line.indexOf(' ');
+        int open = line.indexOf('"'), close = line.lastIndexOf('"');
+        if (space > 1 && open > space && close > open) {
+            tags.put(line.substring(1, space), line.substring(open + 1, close).replace("\\\"", "\""));
+        }
+    }
+
+    private void startMovetext() {
+        movetext = true;
+        position = ChessPosition.initialPosition();
+        String fen = tags.get("FEN");
+        if (fen != null) {
+            try {
+                if (!UciEngine.fromFen(fen).equals(position)) {
+                    error = "line " + lineNumber + ": games from a custom position are not supported";
+                }
+            } catch (RuntimeException e) {
+                error = "line " + lineNumber + ": bad FEN " + fen;
+            }
+        }
+    }
+
+    private void parseMovetext(String line) {
+        int i = 0, length = line.length();
+        while (i < length && result == null) {
+            char c = line.charAt(i);
+            if (Character.isWhitespace(c)) {
+                i++;
+            } else if (c == '{') {
+                int end = line.indexOf('}', i);
+                if (end < 0) {
+                    inComment = true;
+                    return;
+                }
+                i = end + 1;
+            } else if (c == ';') {
+                return;
+            } else if (c == '(') {
+                variationDepth++;
+                i++;
+            } else if (c == ')') {
+                variationDepth = Math.max(0, variationDepth - 1);
+                i++;
+            } else {
+                int start = i;
+                while (i < length && !Character.isWhitespace(line.charAt(i)) && "{}();".indexOf(line.charAt(i)) < 0) {
+                    i++;
+                }
+                if (variationDepth == 0) {
+                    parseToken(line.substring(start, i));
+                }
+            }
+        }
+    }
+
+    private void parseToken(String token) {
+        if (token.equals("1-0") || token.equals("0-1") || token.equals("1/2-1/2") || token.equals("*")) {
+            result = token;
+            return;
+        }
+        if (token.charAt(0) == '$') {
+            return;
+        }
+        // 去掉回合号，如"12."、"12..."或连写的"12.e4"
+        if (Character.isDigit(token.charAt(0))) {
+            int dot = token.lastIndexOf('.');
+            if (dot < 0) {
+                return;
+            }
+            token = token.substring(dot + 1);
+            if (token.isEmpty()) {
+                return;
+            }
+        }
+        if (error != null) {
+            return;
+        }
+        if (token.equals("--")) {
+            position.setSideToMove(position.getSideToMove() ^ 1);
+            return;
+        }
+        int move = Pgn.parseSan(position, token);
+        if (move == Move.NONE) {
+            error = "line " + lineNumber + ": cannot play " + token;
+            return;
+        }
+        if (moveCount == moves.length) {
+            moves = Arrays.copyOf(moves, moveCount * 2);
+        }
+        moves[moveCount++] = move;
+        position.makeMove(move);
+    }
+
+    private Game finish() {
+        if (position == null) {
+            position = ChessPosition.initialPosition();
+        }
+        if (result == null) {
+            result = tags.containsKey("Result") ? tags.get("Result") : "*";
+        }
+        GameRecord record = error == null ? new GameRecord(position, Arrays.copyOf(moves, moveCount)) : null;
+        return new Game(tags, record, result, error);
+    }
+}
@@ -0,0 +1,107 @@
+package controller;
+
+import model.ChessPosition;
+import model.GameRecord;
+import model.Move;
+import model.MoveGenerator;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 这个类把棋局逐局写成PGN，每局写完就交给底层Writer，不在内存中积累。
+ * <br>
+ * 倒计时结束不走棋直接换手的地方写成空着"--"；没有给出结果时，按哪一方的王被吃掉推出结果。
+ */
+public class PgnWriter {
+    private static final String[] SEVEN_TAGS = {"Event", "Site", "Date", "Round", "White", "Black", "Result"};
+    private static final int LINE_WIDTH = 79;
+
+    private final Writer out;
+    private final int[] buffer = new int[MoveGenerator.MAX_MOVES];
+    private final StringBuilder text = new StringBuilder(4096);
+    private int lineLength;
+
+    public PgnWriter(Writer out) {
+        this.out = out;
+    }
+
+    /**
+     * @param tags 标签，七个必需标签缺少时补"?"
+     */
+    public void write(Map<String, String> tags, GameRecord record) throws IOException {
+        ChessPosition position = ChessPosition.initialPosition();
+        text.setLength(0);
+        lineLength = 0;
+        int fullMove = 1;
+        // 黑方的半回合紧跟在白方之后时不再写回合号
+        boolean numbered = false;
+        for (int i = 0; i < record.getMoveCount(); i++) {
+            int move = record.getMove(i);
+            boolean pass = ChessPosition.colorOf(position.pieceAt(Move.from(move))) != position.getSideToMove();
+            for (int half = pass ? 0 : 1; half < 2; half++) {
+                int side = position.getSideToMove();
+                if (side == ChessPosition.WHITE) {
+                    appendToken(fullMove + ".");
+                } else if (!numbered) {
+                    appendToken(fullMove + "...");
+                }
+                if (half == 0) {
+                    appendToken("--");
+                    position.setSideToMove(side ^ 1);
+                } else {
+                    appendToken(Pgn.toSan(position, move, buffer));
+                    position.makeMove(move);
+                }
+                if (side == ChessPosition.BLACK) {
+                    fullMove++;
+                }
+                numbered = side == ChessPosition.WHITE;
+            }
+        }
+        String result = tags.get("Result");
+        if (result == null) {
+            result = resultOf(position);
+        }
+        appendToken(result);
+
+        Map<String, String> all = new LinkedHashMap<>();
+        for (String name : SEVEN_TAGS) {
+            all.put(name, "?");
+        }
+        all.putAll(tags);
+        all.put("Result", result);
+        for (Map.Entry<String, String> tag : all.entrySet()) {
+            out.write("[" + tag.getKey() + " \"" + tag.getValue().replace("\"", "\\\"") + "\"]\n");
+        }
+        out.write('\n');
+        out.append(text).write("\n\n");
+    }
+
+    private void appendToken(String token) {
+        if (lineLength > 0 && lineLength + 1 + token.length() > LINE_WIDTH) {
+            text.append('\n');
+            lineLength = 0;
+        } else if (lineLength > 0) {
+            text.append(' ');
+            lineLength++;
+        }
+        text.append(token);
+        lineLength += token.length();
+    }
+
+    /**
+     * @return 王被吃掉的一方输，否则为"*"
+     */
+    private static String resultOf(ChessPosition position) {
+        if (position.kingSquare(ChessPosition.WHITE) < 0) {
+            return "0-1";
+        }
+        if (position.kingSquare(ChessPosition.BLACK) < 0) {
+            return "1-0";
+        }
+        return "*";
+    }
+}
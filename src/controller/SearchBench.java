@@ -0,0 +1,62 @@
+package controller;
+
+import model.ChessPosition;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+/**
+ * 这个类测量多线程搜索的加速比：分别用1、2、4、8个线程把同一局面搜索到固定深度，比较所用时间，不需要界面。
+ * <br>
+ * -noorder关闭走法排序，用来对比排序前后到达同一深度所需的节点数。
+ * <br>
+ * 正式测量前先预热一次；每次测量前清空置换表，避免上一次的结果影响下一次。
+ * <br>
+ * 用法：java controller.SearchBench &lt;depth&gt; [存档路径] [-threads 1,2,4,8] [-hash 兆字节] [-noorder]
+ */
+public class SearchBench {
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.out.println("usage: SearchBench <depth> [save file] [-threads 1,2,4,8] [-hash mb] [-noorder]");
+            return;
+        }
+        int depth = Integer.parseInt(args[0]);
+        ChessPosition root = ChessPosition.initialPosition();
+        String threadList = "1,2,4,8";
+        int hash = 64;
+        boolean ordering = true;
+        for (int i = 1; i < args.length; i++) {
+            if (args[i].equals("-threads") && i + 1 < args.length) {
+                threadList = args[++i];
+            } else if (args[i].equals("-noorder")) {
+                ordering = false;
+            } else if (args[i].equals("-hash") && i + 1 < args.length) {
+                hash = Integer.parseInt(args[++i]);
+            } else {
+                root = ChessPosition.fromSaveLines(Files.readAllLines(Paths.get(args[i])));
+            }
+        }
+        System.out.print(root);
+
+        ChessEngine engine = new ChessEngine(new TranspositionTable(hash));
+        engine.setMoveOrdering(ordering);
+        // 先搜索一次让JIT完成编译，否则第一组的时间偏长
+        engine.setThreads(1);
+        engine.search(root, Math.min(depth, 4), 0, 0);
+        long baseline = 0;
+        for (String item : threadList.split(",")) {
+            int threads = Integer.parseInt(item.trim());
+            engine.setThreads(threads);
+            engine.getTable().clear();
+            engine.getPawnTable().clear();
+            ChessEngine.SearchResult result = engine.search(root, depth, 0, 0);
+            long millis = Math.max(1, result.millis);
+            if (baseline == 0) {
+                baseline = millis;
+            }
+            System.out.printf("threads %d: %s, speedup %.2f, first-move cutoffs %.1f%%, pawn hash hits %.1f%%\n", threads, result,
+                    (double) baseline / millis, engine.getFirstMoveCutoffRate() * 100, engine.getPawnTable().getHitRate() * 100);
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package controller;
+
+/**
+ * 这个类决定一次搜索用多少时间。棋局是每步固定倒计时(见ChessGameFrame.TimerTask)，省下的时间不能留到下一步，
+ * 所以预算只取决于本步剩余的秒数和局面是否复杂。
+ * <br>
+ * 硬期限在倒计时结束前留出余量，到期时搜索立即停止并返回已完成的最好结果，保证不会超时丢掉这一步；
+ * 软期限之后每完成一次迭代判断是否值得继续：最佳走法连续几次不变就提前停，最佳走法改变或分数下跌就延长，
+ * 预计下一次迭代在硬期限前完成不了也停。
+ */
+public class TimeManager {
+    /**
+     * 倒计时的秒数只精确到1秒，再加上走子和界面刷新的时间，至少留出这么多余量
+     */
+    private static final long SAFETY_MILLIS = 1500;
+    private static final long MIN_MILLIS = 50;
+    /**
+     * 估计下一次迭代耗时是本次的多少倍
+     */
+    private static final int BRANCHING_ESTIMATE = 3;
+
+    private final long softMillis;
+    private final long hardMillis;
+    private final boolean adaptive;
+    private long start;
+    private long lastIterationEnd;
+    private int lastBestMove;
+    private int lastScore;
+    private int stableIterations;
+
+    public TimeManager(long softMillis, long hardMillis) {
+        this(softMillis, hardMillis, true);
+    }
+
+    private TimeManager(long softMillis, long hardMillis, boolean adaptive) {
+        this.softMillis = Math.min(softMillis, hardMillis);
+        this.hardMillis = hardMillis;
+        this.adaptive = adaptive;
+    }
+
+    /**
+     * @return 只有硬期限的固定预算，时间不到不会提前停止；0表示不限时间
+     */
+    public static TimeManager fixed(long millis) {
+        long limit = millis > 0 ? millis : Long.MAX_VALUE / 2;
+        return new TimeManager(limit, limit, false);
+    }
+
+    /**
+     * 根据倒计时剩余的秒数制定预算：硬期限为剩余时间减去余量，软期限为其三分之一
+     *
+     * @param secondsLeft TimerTask.getTime()
+     * @param maxMillis   不管剩余多少时间，最多思考这么久
+     */
+    public static TimeManager forClock(int secondsLeft, long maxMillis) {
+        // time为t时，下一次减到0最快在t-1秒后
+        long hard = Math.max(MIN_MILLIS, Math.min(maxMillis, (secondsLeft - 1) * 1000L - SAFETY_MILLIS));
+        return new TimeManager(hard / 3, hard);
+    }
+
+    public void start() {
+        start = System.currentTimeMillis();
+        lastIterationEnd = start;
+        lastBestMove = 0;
+        stableIterations = 0;
+    }
+
+    public long getSoftMillis() {
+        return softMillis;
+    }
+
+    public long getHardMillis() {
+        return hardMillis;
+    }
+
+    /**
+     * @return 搜索必须停止的时刻
+     */
+    public long hardDeadline() {
+        return start + hardMillis;
+    }
+
+    public long elapsed() {
+        return System.currentTimeMillis() - start;
+    }
+
+    /**
+     * 每完成一次迭代调用一次
+     *
+     * @return 是否应该停止搜索
+     */
+    public boolean onIteration(int depth, int bestMove, int score) {
+        if (!adaptive) {
+            return false;
+        }
+        long now = System.currentTimeMillis();
+        long elapsed = now - start;
+        long iteration = now - lastIterationEnd;
+        lastIterationEnd = now;
+
+        double scale = 1.0;
+        if (depth > 1) {
+            if (bestMove == lastBestMove) {
+                stableIterations++;
+            } else {
+                stableIterations = 0;
+                scale *= 1.5;
+            }
+            if (score < lastScore - 50) {
+                scale *= 1.5;
+            }
+        }
+        if (stableIterations >= 4) {
+            scale *= 0.5;
+        }
+        lastBestMove = bestMove;
+        lastScore = score;
+        return elapsed >= softMillis * scale || elapsed + iteration * BRANCHING_ESTIMATE >= hardMillis;
+    }
+}
@@ -0,0 +1,351 @@
+package controller;
+
+import model.ChessPosition;
+import model.Move;
+import model.MoveGenerator;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 这个类让两个引擎配置在多个线程上同时对弈大量棋局，不需要界面，用来判断对引擎或评估的修改是否有效。
+ * <br>
+ * 每个开局下两局，双方交换先后手；每局按存档格式(终局棋盘、行棋方和从初始局面开始的全部步骤)保存，可以在界面中载入复盘。
+ * 结果以引擎A的视角统计Elo差和SPRT(序贯概率比检验)的对数似然比，超出上下界时提前结束。
+ * <br>
+ * 用法：java controller.Tournament &lt;局数&gt; [-threads n] [-a 配置] [-b 配置] [-openings 存档目录] [-plies n]
+ * [-out 目录] [-sprt elo0 elo1]
+ * <br>
+ * 配置是逗号分隔的key=value，支持nodes(每步节点数，默认20000)、depth(最大深度)和order(走法排序on/off)，例如"nodes=40000,order=off"。
+ */
+public class Tournament {
+    /**
+     * 超过这么多步仍未结束的对局判和
+     */
+    private static final int MAX_PLIES = 300;
+    private static final double ALPHA = 0.05;
+    private static final double BETA = 0.05;
+
+    /**
+     * 一方引擎的参数
+     */
+    static class EngineConfig {
+        long nodes = 20000;
+        int depth = ChessEngine.MAX_PLY;
+        boolean ordering = true;
+
+        static EngineConfig parse(String text) {
+            EngineConfig config = new EngineConfig();
+            for (String item : text.split(",")) {
+                String[] pair = item.split("=", 2);
+                if (pair.length != 2) {
+                    throw new IllegalArgumentException("expected key=value: " + item);
+                }
+                switch (pair[0].trim()) {
+                    case "nodes":
+                        config.nodes = Long.parseLong(pair[1].trim());
+                        break;
+                    case "depth":
+                        config.depth = Integer.parseInt(pair[1].trim());
+                        break;
+                    case "order":
+                        config.ordering = !pair[1].trim().equals("off");
+                        break;
+                    default:
+                        throw new IllegalArgumentException("unknown option: " + pair[0]);
+                }
+            }
+            return config;
+        }
+
+        ChessEngine create() {
+            ChessEngine engine = new ChessEngine(new TranspositionTable(4));
+            engine.setThreads(1);
+            engine.setMoveOrdering(ordering);
+            return engine;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("nodes=%d,depth=%d,order=%s", nodes, depth, ordering ? "on" : "off");
+        }
+    }
+
+    private final EngineConfig configA;
+    private final EngineConfig configB;
+    private final List<int[]> openings;
+    private final Path out;
+    private final double elo0, elo1;
+
+    private final AtomicInteger wins = new AtomicInteger();
+    private final AtomicInteger losses = new AtomicInteger();
+    private final AtomicInteger draws = new AtomicInteger();
+    private final AtomicInteger nextGame = new AtomicInteger();
+    private volatile boolean finished;
+    private long start;
+
+    /**
+     * 每个工作线程自己的两个引擎，每局开始前清空置换表
+     */
+    private final ThreadLocal<ChessEngine[]> engines;
+
+    public Tournament(EngineConfig configA, EngineConfig configB, List<int[]> openings, Path out, double elo0, double elo1) {
+        this.configA = configA;
+        this.configB = configB;
+        this.openings = openings;
+        this.out = out;
+        this.elo0 = elo0;
+        this.elo1 = elo1;
+        engines = ThreadLocal.withInitial(() -> new ChessEngine[]{configA.create(), configB.create()});
+    }
+
+    /**
+     * 用threads个线程下games局，期间每完成一定局数输出一次统计
+     */
+    public void run(int games, int threads) throws InterruptedException {
+        start = System.currentTimeMillis();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        int reportEvery = Math.max(1, Math.min(100, games / 20));
+        for (int t = 0; t < threads; t++) {
+            pool.execute(() -> {
+                int game;
+                while (!finished && (game = nextGame.getAndIncrement()) < games) {
+                    playAndRecord(game);
+                    int played = wins.get() + losses.get() + draws.get();
+                    if (played % reportEvery == 0 || played == games) {
+                        report();
+                    }
+                }
+            });
+        }
+        pool.shutdown();
+        pool.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+        report();
+    }
+
+    private void playAndRecord(int game) {
+        ChessEngine[] pair = engines.get();
+        // 第2i局和第2i+1局使用同一开局，A分别执白和执黑
+        int[] opening = openings.get(game / 2 % openings.size());
+        boolean aIsWhite = game % 2 == 0;
+        List<String> steps = new ArrayList<>();
+        ChessPosition position = ChessPosition.initialPosition();
+        int result = play(position, opening, aIsWhite ? pair[0] : pair[1], aIsWhite ? pair[1] : pair[0],
+                aIsWhite ? configA : configB, aIsWhite ? configB : configA, steps);
+        int resultForA = aIsWhite ? result : -result;
+        if (resultForA > 0) {
+            wins.incrementAndGet();
+        } else if (resultForA < 0) {
+            losses.incrementAndGet();
+        } else {
+            draws.incrementAndGet();
+        }
+        if (out != null) {
+            List<String> lines = position.toSaveLines();
+            lines.addAll(steps);
+            try {
+                Files.write(out.resolve(String.format("game-%05d.txt", game)), lines);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * 从初始局面走完开局后由两个引擎轮流走棋
+     *
+     * @return 白方胜为1，黑方胜为-1，和棋为0
+     */
+    private static int play(ChessPosition position, int[] opening, ChessEngine white, ChessEngine black,
+                            EngineConfig whiteConfig, EngineConfig blackConfig, List<String> steps) {
+        white.getTable().clear();
+        black.getTable().clear();
+        for (int move : opening) {
+            steps.add(Move.toStep(move, position.getSideToMove()));
+            position.makeMove(move);
+        }
+        int[] moves = new int[MoveGenerator.MAX_MOVES];
+        while (true) {
+            if (MoveGenerator.generateLegal(position, moves) == 0) {
+                if (!position.isInCheck(position.getSideToMove())) {
+                    return 0;
+                }
+                return position.getSideToMove() == ChessPosition.WHITE ? -1 : 1;
+            }
+            if (position.isRepetition() || position.getPly() >= MAX_PLIES || Long.bitCount(position.occupancy()) == 2) {
+                return 0;
+            }
+            boolean whiteToMove = position.getSideToMove() == ChessPosition.WHITE;
+            EngineConfig config = whiteToMove ? whiteConfig : blackConfig;
+            int move = (whiteToMove ? white : black).search(position, config.depth, config.nodes, 0).bestMove;
+            steps.add(Move.toStep(move, position.getSideToMove()));
+            position.makeMove(move);
+        }
+    }
+
+    private synchronized void report() {
+        int w = wins.get(), l = losses.get(), d = draws.get(), n = w + l + d;
+        if (n == 0) {
+            return;
+        }
+        double score = (w + d / 2.0) / n;
+        double variance = (w * Math.pow(1 - score, 2) + l * Math.pow(score, 2) + d * Math.pow(0.5 - score, 2)) / n;
+        double elo = elo(score);
+        // 95%置信区间
+        double margin = n > 1 && variance > 0 ? (elo(Math.min(0.999, score + 1.96 * Math.sqrt(variance / n))) - elo) : 0;
+        double llr = llr(n, score, variance);
+        double lower = Math.log(BETA / (1 - ALPHA)), upper = Math.log((1 - BETA) / ALPHA);
+        double minutes = (System.currentTimeMillis() - start) / 60000.0;
+        String verdict = llr >= upper ? "H1 accepted" : llr <= lower ? "H0 accepted" : "running";
+        System.out.printf("games %d: +%d -%d =%d, elo %.1f +- %.1f, LLR %.2f [%.2f, %.2f] %s, %.1f games/min\n",
+                n, w, l, d, elo, margin, llr, lower, upper, verdict, minutes > 0 ? n / minutes : 0);
+        if (llr >= upper || llr <= lower) {
+            finished = true;
+        }
+    }
+
+    private static double elo(double score) {
+        if (score <= 0 || score >= 1) {
+            return score <= 0 ? -999 : 999;
+        }
+        return -400 * Math.log10(1 / score - 1);
+    }
+
+    private static double expectedScore(double elo) {
+        return 1 / (1 + Math.pow(10, -elo / 400));
+    }
+
+    /**
+     * 三项分布的广义SPRT近似：H0为Elo差等于elo0，H1为等于elo1
+     */
+    private double llr(int games, double score, double variance) {
+        if (variance <= 0) {
+            return 0;
+        }
+        double s0 = expectedScore(elo0), s1 = expectedScore(elo1);
+        return games * (s1 - s0) * (2 * score - s0 - s1) / (2 * variance);
+    }
+
+    /**
+     * 从初始局面随机走plies步作为开局，不会走到已经结束的局面
+     */
+    static List<int[]> randomOpenings(int count, int plies, long seed) {
+        Random random = new Random(seed);
+        List<int[]> openings = new ArrayList<>(count);
+        int[] moves = new int[MoveGenerator.MAX_MOVES];
+        while (openings.size() < count) {
+            ChessPosition position = ChessPosition.initialPosition();
+            int[] opening = new int[plies];
+            boolean ok = true;
+            for (int i = 0; i < plies && ok; i++) {
+                int n = MoveGenerator.generateLegal(position, moves);
+                ok = n > 0;
+                if (ok) {
+                    opening[i] = moves[random.nextInt(n)];
+                    position.makeMove(opening[i]);
+                }
+            }
+            if (ok && MoveGenerator.generateLegal(position, moves) > 0) {
+                openings.add(opening);
+            }
+        }
+        return openings;
+    }
+
+    /**
+     * 取目录中每个存档的前plies步作为开局，步骤不合法的存档跳过
+     */
+    static List<int[]> loadOpenings(Path folder, int plies) throws IOException {
+        List<int[]> openings = new ArrayList<>();
+        int[] moves = new int[MoveGenerator.MAX_MOVES];
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(folder, "*.txt")) {
+            for (Path file : files) {
+                List<String> lines = Files.readAllLines(file);
+                ChessPosition position = ChessPosition.initialPosition();
+                int[] opening = new int[plies];
+                int length = 0;
+                try {
+                    for (int i = 9; i < lines.size() && length < plies; i++) {
+                        int move = Move.fromStep(lines.get(i));
+                        int n = MoveGenerator.generateLegal(position, moves);
+                        boolean legal = false;
+                        for (int j = 0; j < n && !legal; j++) {
+                            legal = moves[j] == move;
+                        }
+                        if (!legal) {
+                            break;
+                        }
+                        opening[length++] = move;
+                        position.makeMove(move);
+                    }
+                } catch (IllegalArgumentException e) {
+                    // 格式错误的步骤之后的部分不使用
+                }
+                if (length == plies && MoveGenerator.generateLegal(position, moves) > 0) {
+                    openings.add(opening);
+                }
+            }
+        }
+        return openings;
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length == 0) {
+            System.out.println("usage: Tournament <games> [-threads n] [-a config] [-b config] [-openings dir] [-plies n] [-out dir] [-sprt elo0 elo1]");
+            return;
+        }
+        int games = Integer.parseInt(args[0]);
+        int threads = Runtime.getRuntime().availableProcessors();
+        EngineConfig a = new EngineConfig(), b = new EngineConfig();
+        Path openingFolder = null, out = null;
+        int plies = 4;
+        double elo0 = 0, elo1 = 5;
+        for (int i = 1; i < args.length; i++) {
+            switch (args[i]) {
+                case "-threads":
+                    threads = Integer.parseInt(args[++i]);
+                    break;
+                case "-a":
+                    a = EngineConfig.parse(args[++i]);
+                    break;
+                case "-b":
+                    b = EngineConfig.parse(args[++i]);
+                    break;
+                case "-openings":
+                    openingFolder = Paths.get(args[++i]);
+                    break;
+                case "-plies":
+                    plies = Integer.parseInt(args[++i]);
+                    break;
+                case "-out":
+                    out = Paths.get(args[++i]);
+                    Files.createDirectories(out);
+                    break;
+                case "-sprt":
+                    elo0 = Double.parseDouble(args[++i]);
+                    elo1 = Double.parseDouble(args[++i]);
+                    break;
+                default:
+                    throw new IllegalArgumentException("unknown option: " + args[i]);
+            }
+        }
+        List<int[]> openings = openingFolder != null ? loadOpenings(openingFolder, plies) : randomOpenings((games + 1) / 2, plies, 2022);
+        if (openings.isEmpty()) {
+            System.out.println("no usable openings");
+            return;
+        }
+        System.out.printf("A: %s\nB: %s\n%d games, %d openings, %d threads\n", a, b, games, openings.size(), threads);
+        new Tournament(a, b, openings, out, elo0, elo1).run(games, threads);
+    }
+}
@@ -0,0 +1,185 @@
+package controller;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 这个类是搜索共用的置换表，按ChessPosition的Zobrist哈希保存已经搜索过的局面结果，多个搜索线程可以同时读写而不加锁。
+ * <br>
+ * 每个条目占两个long：第一个是 key ^ data，第二个是 data。读的时候用 key ^ data 校验，
+ * 两个long被不同线程交错写坏时校验失败，当作未命中处理，所以不需要锁。
+ * <br>
+ * data的布局：第0-15位走法，第16-31位分数(有符号)，第32-39位深度，第40-41位边界类型，第42-47位搜索代数。
+ * 表按两个条目一组组织，替换时优先保留深度大、代数新的条目。
+ */
+public class TranspositionTable {
+    public static final int BOUND_UPPER = 1;
+    public static final int BOUND_LOWER = 2;
+    public static final int BOUND_EXACT = 3;
+
+    private static final int BUCKET_SIZE = 2;
+    private static final int AGE_MASK = 63;
+
+    private long[] table;
+    private int bucketMask;
+    private volatile int age;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder collisions = new LongAdder();
+    private final LongAdder stores = new LongAdder();
+
+    /**
+     * @param megabytes 表的大小，会向下取到2的幂个条目组
+     */
+    public TranspositionTable(int megabytes) {
+        resize(megabytes);
+    }
+
+    public void resize(int megabytes) {
+        long bytes = Math.max(1, megabytes) * 1024L * 1024L;
+        long buckets = Long.highestOneBit(bytes / (BUCKET_SIZE * 16L));
+        buckets = Math.min(buckets, 1L << 26);
+        table = new long[(int) buckets * BUCKET_SIZE * 2];
+        bucketMask = (int) buckets - 1;
+        resetStatistics();
+    }
+
+    public void clear() {
+        Arrays.fill(table, 0L);
+        age = 0;
+        resetStatistics();
+    }
+
+    /**
+     * 每次开始新的搜索时调用，旧代数的条目在替换时优先被覆盖
+     */
+    public void newSearch() {
+        age = (age + 1) & AGE_MASK;
+    }
+
+    /**
+     * @return 命中时返回条目的data，用move/score/depth/bound解析；未命中返回0
+     */
+    public long probe(long key) {
+        long[] t = table;
+        int base = bucketIndex(key);
+        boolean occupied = false;
+        for (int i = 0; i < BUCKET_SIZE; i++) {
+            int index = base + i * 2;
+            long data = t[index + 1];
+            if ((t[index] ^ data) == key && data != 0) {
+                hits.increment();
+                return data;
+            }
+            occupied |= data != 0;
+        }
+        if (occupied) {
+            collisions.increment();
+        }
+        misses.increment();
+        return 0L;
+    }
+
+    /**
+     * 保存搜索结果。同一局面直接覆盖(没有新走法时保留原走法)，否则替换组内价值最低的条目
+     *
+     * @param bound BOUND_UPPER、BOUND_LOWER或BOUND_EXACT
+     */
+    public void store(long key, int move, int score, int depth, int bound) {
+        long[] t = table;
+        int base = bucketIndex(key);
+        int currentAge = age;
+        int target = base;
+        int worst = Integer.MAX_VALUE;
+        for (int i = 0; i < BUCKET_SIZE; i++) {
+            int index = base + i * 2;
+            long data = t[index + 1];
+            if (data == 0 || (t[index] ^ data) == key) {
+                if (data != 0 && move == 0) {
+                    move = move(data);
+                }
+                target = index;
+                break;
+            }
+            int value = depth(data) - 4 * ((currentAge - age(data)) & AGE_MASK);
+            if (value < worst) {
+                worst = value;
+                target = index;
+            }
+        }
+        long data = (move & 0xFFFFL)
+                | (score & 0xFFFFL) << 16
+                | (Math.max(0, Math.min(depth, 255)) & 0xFFL) << 32
+                | (long) bound << 40
+                | (long) currentAge << 42;
+        t[target] = key ^ data;
+        t[target + 1] = data;
+        stores.increment();
+    }
+
+    private int bucketIndex(long key) {
+        return ((int) (key ^ key >>> 32) & bucketMask) * (BUCKET_SIZE * 2);
+    }
+
+    public static int move(long data) {
+        return (int) (data & 0xFFFF);
+    }
+
+    public static int score(long data) {
+        return (short) (data >>> 16);
+    }
+
+    public static int depth(long data) {
+        return (int) (data >>> 32 & 0xFF);
+    }
+
+    public static int bound(long data) {
+        return (int) (data >>> 40 & 3);
+    }
+
+    private static int age(long data) {
+        return (int) (data >>> 42 & AGE_MASK);
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return 探查时对应的组里有其他局面的条目而未命中的次数
+     */
+    public long getCollisions() {
+        return collisions.sum();
+    }
+
+    public long getStores() {
+        return stores.sum();
+    }
+
+    /**
+     * @return 前1000个条目中属于本次搜索的比例(千分比)，与UCI的hashfull含义相同
+     */
+    public int hashfull() {
+        long[] t = table;
+        int count = 0, sampled = Math.min(1000, t.length / 2);
+        for (int i = 0; i < sampled; i++) {
+            long data = t[i * 2 + 1];
+            if (data != 0 && age(data) == age) {
+                count++;
+            }
+        }
+        return sampled == 0 ? 0 : count * 1000 / sampled;
+    }
+
+    public void resetStatistics() {
+        hits.reset();
+        misses.reset();
+        collisions.reset();
+        stores.reset();
+    }
+}
@@ -0,0 +1,335 @@
+package controller;
+
+import model.ChessPosition;
+import model.Move;
+import model.MoveGenerator;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * 这个类让引擎通过标准输入输出使用UCI协议，可以接入常见的国际象棋界面和脚本，不启动Swing界面。
+ * <br>
+ * 支持uci、isready、setoption(Hash、Threads)、ucinewgame、position(startpos或fen，后接moves)、
+ * go(depth、nodes、movetime、wtime/btime/winc/binc/movestogo、infinite)、stop和quit。
+ * <br>
+ * 坐标换算：第x行第y列对应UCI的 文件 = 'a' + (7 - y)、横线 = 8 - x，这样初始局面与标准国际象棋一致。
+ * 本游戏没有王车易位和吃过路兵，FEN中的这两项被忽略。
+ */
+public class UciEngine {
+    private static final String START_FEN = "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w - - 0 1";
+    /**
+     * 按时钟分配时间时假设的剩余步数
+     */
+    private static final int DEFAULT_MOVES_TO_GO = 30;
+
+    private final PrintStream out;
+    private final ChessEngine engine = new ChessEngine(new TranspositionTable(64));
+    private final ExecutorService searchThread = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "uci-search");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private ChessPosition position = ChessPosition.initialPosition();
+    private Future<?> search;
+
+    public UciEngine(PrintStream out) {
+        this.out = out;
+    }
+
+    /**
+     * 处理一行命令
+     *
+     * @return 收到quit时返回false
+     */
+    public boolean handle(String line) {
+        String[] tokens = line.trim().split("\\s+");
+        switch (tokens[0]) {
+            case "uci":
+                send("id name CS102A Chess");
+                send("id author CS102A");
+                send("option name Hash type spin default 64 min 1 max 4096");
+                send("option name Threads type spin default " + engine.getThreads() + " min 1 max 256");
+                send("uciok");
+                break;
+            case "isready":
+                // 搜索进行中也要立即回答
+                send("readyok");
+                break;
+            case "setoption":
+                setOption(tokens);
+                break;
+            case "ucinewgame":
+                stopSearch();
+                engine.getTable().clear();
+                position = ChessPosition.initialPosition();
+                break;
+            case "position":
+                stopSearch();
+                setPosition(tokens);
+                break;
+            case "go":
+                stopSearch();
+                go(tokens);
+                break;
+            case "stop":
+                engine.stop();
+                break;
+            case "quit":
+                engine.stop();
+                return false;
+            default:
+                if (!tokens[0].isEmpty()) {
+                    send("info string unknown command " + tokens[0]);
+                }
+        }
+        return true;
+    }
+
+    private void setOption(String[] tokens) {
+        String name = valueAfter(tokens, "name");
+        String value = valueAfter(tokens, "value");
+        if (name == null || value == null) {
+            return;
+        }
+        stopSearch();
+        if (name.equalsIgnoreCase("Hash")) {
+            engine.getTable().resize(Integer.parseInt(value));
+        } else if (name.equalsIgnoreCase("Threads")) {
+            engine.setThreads(Integer.parseInt(value));
+        }
+    }
+
+    private void setPosition(String[] tokens) {
+        int i = 1;
+        ChessPosition next;
+        try {
+            if (tokens.length > 1 && tokens[1].equals("fen")) {
+                StringBuilder fen = new StringBuilder();
+                for (i = 2; i < tokens.length && !tokens[i].equals("moves"); i++) {
+                    fen.append(tokens[i]).append(' ');
+                }
+                next = fromFen(fen.toString().trim());
+            } else {
+                next = fromFen(START_FEN);
+                i = 2;
+            }
+        } catch (IllegalArgumentException e) {
+            send("info string " + e.getMessage());
+            return;
+        }
+        if (i < tokens.length && tokens[i].equals("moves")) {
+            int[] moves = new int[MoveGenerator.MAX_MOVES];
+            for (i++; i < tokens.length; i++) {
+                int move = parseMove(next, tokens[i], moves);
+                if (move == Move.NONE) {
+                    send("info string illegal move " + tokens[i]);
+                    break;
+                }
+                next.makeMove(move);
+            }
+        }
+        position = next;
+    }
+
+    private void go(String[] tokens) {
+        int depth = ChessEngine.MAX_PLY;
+        long nodes = 0, moveTime = 0, time = -1, increment = 0;
+        int movesToGo = DEFAULT_MOVES_TO_GO;
+        boolean white = position.getSideToMove() == ChessPosition.WHITE;
+        for (int i = 1; i + 1 < tokens.length; i++) {
+            switch (tokens[i]) {
+                case "depth":
+                    depth = Integer.parseInt(tokens[++i]);
+                    break;
+                case "nodes":
+                    nodes = Long.parseLong(tokens[++i]);
+                    break;
+                case "movetime":
+                    moveTime = Long.parseLong(tokens[++i]);
+                    break;
+                case "wtime":
+                case "btime":
+                    if (tokens[i].equals(white ? "wtime" : "btime")) {
+                        time = Long.parseLong(tokens[i + 1]);
+                    }
+                    i++;
+                    break;
+                case "winc":
+                case "binc":
+                    if (tokens[i].equals(white ? "winc" : "binc")) {
+                        increment = Long.parseLong(tokens[i + 1]);
+                    }
+                    i++;
+                    break;
+                case "movestogo":
+                    movesToGo = Math.max(1, Integer.parseInt(tokens[++i]));
+                    break;
+                default:
+            }
+        }
+        TimeManager timeManager;
+        if (moveTime > 0) {
+            timeManager = TimeManager.fixed(moveTime);
+        } else if (time >= 0) {
+            // 平均分配剩余时间，硬期限不超过剩余时间的三分之一
+            long hard = Math.max(10, Math.min(time / 3, (time / movesToGo + increment) * 3));
+            timeManager = new TimeManager(Math.min(hard, time / movesToGo + increment * 3 / 4), hard);
+        } else {
+            timeManager = TimeManager.fixed(0);
+        }
+        ChessPosition root = new ChessPosition(position);
+        int maxDepth = depth;
+        long maxNodes = nodes;
+        engine.setListener(result -> send(info(root, result)));
+        // 在读命令的线程上准备，紧跟着go到达的stop也能停下这次搜索
+        ChessEngine.StopToken token = engine.prepare();
+        search = searchThread.submit(() -> {
+            ChessEngine.SearchResult result = engine.search(root, maxDepth, maxNodes, timeManager, token);
+            send("bestmove " + (result.bestMove == Move.NONE ? "0000" : toUci(result.bestMove)));
+        });
+    }
+
+    private String info(ChessPosition root, ChessEngine.SearchResult result) {
+        StringBuilder builder = new StringBuilder("info depth ").append(result.depth);
+        if (Math.abs(result.score) >= ChessEngine.MATE_BOUND) {
+            int plies = ChessEngine.MATE - Math.abs(result.score);
+            builder.append(" score mate ").append(result.score > 0 ? (plies + 1) / 2 : -(plies / 2));
+        } else {
+            builder.append(" score cp ").append(result.score);
+        }
+        builder.append(" nodes ").append(result.nodes).append(" nps ").append(result.getNps())
+                .append(" time ").append(result.millis).append(" hashfull ").append(engine.getTable().hashfull())
+                .append(" pv");
+        for (int move : engine.principalVariation(root, result.bestMove, result.depth)) {
+            builder.append(' ').append(toUci(move));
+        }
+        return builder.toString();
+    }
+
+    /**
+     * 停止正在进行的搜索并等它输出bestmove，读命令的线程不会因为go infinite一直阻塞
+     */
+    private void stopSearch() {
+        if (search != null) {
+            engine.stop();
+        }
+        waitForSearch();
+    }
+
+    private void waitForSearch() {
+        if (search != null) {
+            try {
+                search.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                send("info string search failed: " + e.getCause());
+            }
+            search = null;
+        }
+    }
+
+    private synchronized void send(String line) {
+        out.println(line);
+        out.flush();
+    }
+
+    private static String valueAfter(String[] tokens, String key) {
+        for (int i = 0; i + 1 < tokens.length; i++) {
+            if (tokens[i].equals(key)) {
+                StringBuilder builder = new StringBuilder(tokens[i + 1]);
+                for (int j = i + 2; j < tokens.length && !tokens[j].equals("value"); j++) {
+                    builder.append(' ').append(tokens[j]);
+                }
+                return builder.toString();
+            }
+        }
+        return null;
+    }
+
+    public static String squareName(int square) {
+        return "" + (char) ('a' + 7 - ChessPosition.colOf(square)) + (char) ('8' - ChessPosition.rowOf(square));
+    }
+
+    /**
+     * @return 形如"e2"的坐标对应的格子，格式错误时返回-1
+     */
+    public static int parseSquare(String name) {
+        if (name.length() != 2) {
+            return -1;
+        }
+        int file = name.charAt(0) - 'a', rank = name.charAt(1) - '1';
+        if (file < 0 || file > 7 || rank < 0 || rank > 7) {
+            return -1;
+        }
+        return ChessPosition.square(7 - rank, 7 - file);
+    }
+
+    public static String toUci(int move) {
+        String text = squareName(Move.from(move)) + squareName(Move.to(move));
+        return Move.promotion(move) == 0 ? text : text + Character.toLowerCase(ChessPosition.pieceChar(Move.promotion(move)));
+    }
+
+    /**
+     * @return position中与UCI走法对应的合法走法，不合法时返回Move.NONE
+     */
+    public static int parseMove(ChessPosition position, String text, int[] moves) {
+        int count = MoveGenerator.generateLegal(position, moves);
+        for (int i = 0; i < count; i++) {
+            if (toUci(moves[i]).equals(text)) {
+                return moves[i];
+            }
+        }
+        return Move.NONE;
+    }
+
+    /**
+     * 解析FEN的棋盘和行棋方两项
+     *
+     * @throws IllegalArgumentException 格式错误
+     */
+    public static ChessPosition fromFen(String fen) {
+        String[] fields = fen.split("\\s+");
+        String[] ranks = fields[0].split("/");
+        if (ranks.length != 8) {
+            throw new IllegalArgumentException("bad fen: " + fen);
+        }
+        ChessPosition position = new ChessPosition();
+        for (int row = 0; row < 8; row++) {
+            int file = 0;
+            for (char c : ranks[row].toCharArray()) {
+                if (Character.isDigit(c)) {
+                    file += c - '0';
+                    continue;
+                }
+                // FEN中白方大写，存档中白方小写，翻转大小写后按存档字符解析
+                int piece = ChessPosition.pieceOf(Character.isUpperCase(c) ? Character.toLowerCase(c) : Character.toUpperCase(c));
+                if (piece < 0 || file > 7) {
+                    throw new IllegalArgumentException("bad fen: " + fen);
+                }
+                position.putPiece(ChessPosition.square(row, 7 - file), piece);
+                file++;
+            }
+            if (file != 8) {
+                throw new IllegalArgumentException("bad fen: " + fen);
+            }
+        }
+        position.setSideToMove(fields.length > 1 && fields[1].equals("b") ? ChessPosition.BLACK : ChessPosition.WHITE);
+        return position;
+    }
+
+    public static void main(String[] args) throws IOException {
+        UciEngine uci = new UciEngine(System.out);
+        BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
+        String line;
+        while ((line = in.readLine()) != null && uci.handle(line)) {
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package model;
+
+/**
+ * 这个类保存预先计算好的攻击表：马、王、兵的攻击格子，以及车、象用magic bitboard查表得到的攻击格子。
+ * <br>
+ * 所有方法的参数和返回值都是ChessPosition中的格子编号和位棋盘，查询只需要几次数组访问。
+ */
+public final class Attacks {
+    private static final long[] KNIGHT = new long[64];
+    private static final long[] KING = new long[64];
+    private static final long[][] PAWN = new long[2][64];
+    private static final long[][] BETWEEN = new long[64][64];
+
+    private static final int[][] ROOK_DIRECTIONS = {{0, 1}, {-1, 0}, {0, -1}, {1, 0}};
+    private static final int[][] BISHOP_DIRECTIONS = {{1, 1}, {-1, 1}, {-1, -1}, {1, -1}};
+
+    private static final long[] ROOK_MASK = new long[64];
+    /**
+     * magic数是离线用固定种子的稀疏随机数搜索得到的，对每一格都能把全部相关占用映射到互不冲突的下标
+     */
+    private static final long[] ROOK_MAGIC = {
+            0x0080068051E04000L, 0x0040001000402000L, 0x0080100020008008L, 0x4E000A0010208440L,
+            0x4200040802002010L, 0x0100010008020400L, 0x9080608019000600L, 0x8100020080204100L,
+            0x4103800480400020L, 0x8015004004802100L, 0x000200108A002040L, 0x0801000821001000L,
+            0x0015000500080070L, 0x0120800400800200L, 0x0109000432001100L, 0x020080055B000080L,
+            0x0080004000402002L, 0x5260848020004008L, 0x2402020014402080L, 0x3000808010000802L,
+            0x0304018004810800L, 0x0000808004000200L, 0x0002040001500248L, 0x0012020000408401L,
+            0x8440008080004020L, 0x0804200840100040L, 0x0820008080201000L, 0x2080100100082100L,
+            0x0001000500100800L, 0x00A1000900028400L, 0x0100100400C80102L, 0x000001120000A044L,
+            0x800080C004800620L, 0x4040081000202000L, 0x0D08802008801000L, 0x1000800800801004L,
+            0x1004000801010010L, 0x0402800400800200L, 0x0004080204008110L, 0x0000404082000401L,
+            0x00C0118861408000L, 0x1100220081020048L, 0x09A0430420050010L, 0x0000082200420010L,
+            0x2110080004008080L, 0x2004201040680104L, 0x1106001451820008L, 0x0002224104820014L,
+            0x00800C8044210500L, 0x02A0200040100040L, 0x040100A0001E4100L, 0x00204023108A0200L,
+            0x2400080080040080L, 0x1289008400020900L, 0x0002088250010400L, 0x0001006084010200L,
+            0x0001023480002141L, 0x0006400021810015L, 0x8400100840200101L, 0x40003000A1000825L,
+            0x1002011008200402L, 0x100D000400080201L, 0x0020048806102904L, 0x8401000020804201L
+    };
+    private static final int[] ROOK_SHIFT = new int[64];
+    private static final int[] ROOK_OFFSET = new int[64];
+    private static final long[] ROOK_TABLE;
+
+    private static final long[] BISHOP_MASK = new long[64];
+    private static final long[] BISHOP_MAGIC = {
+            0x2008021012002502L, 0x04D0100110628400L, 0x21102080A1021010L, 0x2044041080000400L,
+            0x0004050402800000L, 0x0002010420109560L, 0x08040084500A0000L, 0x9401002104224008L,
+            0x40044350070B0100L, 0x90B00888088C1040L, 0x0100100440444012L, 0x80001104008A0940L,
+            0x1042920210504048L, 0x0000010420048200L, 0x000000A410221000L, 0x804800829C901001L,
+            0x0040002008010120L, 0x8802008424280205L, 0x200800010A040010L, 0x2420800802004008L,
+            0x0012011402A21220L, 0x2002028508022208L, 0x0486200049100802L, 0x2000211101080200L,
+            0x8020200044140C60L, 0x0810680C05080381L, 0x0001442028012400L, 0x4028088008020002L,
+            0x25C1001041004010L, 0x0401020049080140L, 0x0004004084210400L, 0x40010900104400A0L,
+            0x011011480004A800L, 0x0082020200A0680BL, 0x0800203000080082L, 0x0005020081880080L,
+            0x1050120080001004L, 0x0020008880030810L, 0x2241180900008C30L, 0x0201451101012400L,
+            0x8444016008025000L, 0x0002080104000800L, 0x2801001490090200L, 0x0500142018001100L,
+            0x0300040408200400L, 0x0008008800820810L, 0x0804210204004212L, 0x000800A698800202L,
+            0x0411040202401000L, 0x0A008C051802000EL, 0x1002A100A8040022L, 0x00000C0084042600L,
+            0x1000884048220000L, 0x0082200410208000L, 0x0222020441140022L, 0x1004080800408810L,
+            0x0022410801500201L, 0x010000410818020BL, 0x2044000044040410L, 0x00200C0100208801L,
+            0x080800200A102400L, 0x000404C010020090L, 0x1002101418808C03L, 0x0011300081040020L
+    };
+    private static final int[] BISHOP_SHIFT = new int[64];
+    private static final int[] BISHOP_OFFSET = new int[64];
+    private static final long[] BISHOP_TABLE;
+
+    static {
+        for (int square = 0; square < 64; square++) {
+            int x = ChessPosition.rowOf(square), y = ChessPosition.colOf(square);
+            KNIGHT[square] = stepAttacks(x, y, new int[][]{{2, 1}, {2, -1}, {-2, 1}, {-2, -1}, {1, 2}, {1, -2}, {-1, 2}, {-1, -2}});
+            KING[square] = stepAttacks(x, y, new int[][]{{1, 1}, {1, 0}, {1, -1}, {0, 1}, {0, -1}, {-1, 1}, {-1, 0}, {-1, -1}});
+            // 白兵向第0行前进，黑兵向第7行前进
+            PAWN[ChessPosition.WHITE][square] = stepAttacks(x, y, new int[][]{{-1, -1}, {-1, 1}});
+            PAWN[ChessPosition.BLACK][square] = stepAttacks(x, y, new int[][]{{1, -1}, {1, 1}});
+            ROOK_MASK[square] = relevantMask(x, y, ROOK_DIRECTIONS);
+            BISHOP_MASK[square] = relevantMask(x, y, BISHOP_DIRECTIONS);
+        }
+        for (int from = 0; from < 64; from++) {
+            for (int[][] directions : new int[][][]{ROOK_DIRECTIONS, BISHOP_DIRECTIONS}) {
+                for (int[] d : directions) {
+                    long path = 0;
+                    for (int x = ChessPosition.rowOf(from) + d[0], y = ChessPosition.colOf(from) + d[1];
+                         x >= 0 && x < 8 && y >= 0 && y < 8; x += d[0], y += d[1]) {
+                        int to = ChessPosition.square(x, y);
+                        BETWEEN[from][to] = path;
+                        path |= 1L << to;
+                    }
+                }
+            }
+        }
+        ROOK_TABLE = initMagics(ROOK_MASK, ROOK_MAGIC, ROOK_SHIFT, ROOK_OFFSET, ROOK_DIRECTIONS);
+        BISHOP_TABLE = initMagics(BISHOP_MASK, BISHOP_MAGIC, BISHOP_SHIFT, BISHOP_OFFSET, BISHOP_DIRECTIONS);
+    }
+
+    private Attacks() {
+    }
+
+    public static long knightAttacks(int square) {
+        return KNIGHT[square];
+    }
+
+    public static long kingAttacks(int square) {
+        return KING[square];
+    }
+
+    /**
+     * @param color 兵的颜色，ChessPosition.WHITE或BLACK
+     * @return 该兵斜前方能够吃子的格子
+     */
+    public static long pawnAttacks(int color, int square) {
+        return PAWN[color][square];
+    }
+
+    public static long rookAttacks(int square, long occupancy) {
+        return ROOK_TABLE[ROOK_OFFSET[square] + (int) ((occupancy & ROOK_MASK[square]) * ROOK_MAGIC[square] >>> ROOK_SHIFT[square])];
+    }
+
+    public static long bishopAttacks(int square, long occupancy) {
+        return BISHOP_TABLE[BISHOP_OFFSET[square] + (int) ((occupancy & BISHOP_MASK[square]) * BISHOP_MAGIC[square] >>> BISHOP_SHIFT[square])];
+    }
+
+    public static long queenAttacks(int square, long occupancy) {
+        return rookAttacks(square, occupancy) | bishopAttacks(square, occupancy);
+    }
+
+    /**
+     * @return 两格在同一行、列或斜线上时，严格位于两者之间的格子；否则为0
+     */
+    public static long between(int from, int to) {
+        return BETWEEN[from][to];
+    }
+
+    /**
+     * @return 某类棋子(不含兵)在给定占用情况下从square出发攻击的格子
+     */
+    public static long attacks(int type, int square, long occupancy) {
+        switch (type) {
+            case ChessPosition.KNIGHT:
+                return KNIGHT[square];
+            case ChessPosition.BISHOP:
+                return bishopAttacks(square, occupancy);
+            case ChessPosition.ROOK:
+                return rookAttacks(square, occupancy);
+            case ChessPosition.QUEEN:
+                return queenAttacks(square, occupancy);
+            case ChessPosition.KING:
+                return KING[square];
+            default:
+                throw new IllegalArgumentException("pawn attacks depend on color");
+        }
+    }
+
+    private static long stepAttacks(int x, int y, int[][] steps) {
+        long attacks = 0;
+        for (int[] step : steps) {
+            int nx = x + step[0], ny = y + step[1];
+            if (nx >= 0 && nx < 8 && ny >= 0 && ny < 8) {
+                attacks |= 1L << ChessPosition.square(nx, ny);
+            }
+        }
+        return attacks;
+    }
+
+    /**
+     * 滑子的相关占用格子：射线上除去最后一格(棋盘边缘)的部分，边缘格是否有子不影响攻击范围
+     */
+    private static long relevantMask(int x, int y, int[][] directions) {
+        long mask = 0;
+        for (int[] d : directions) {
+            for (int nx = x + d[0], ny = y + d[1];
+                 nx + d[0] >= 0 && nx + d[0] < 8 && ny + d[1] >= 0 && ny + d[1] < 8; nx += d[0], ny += d[1]) {
+                mask |= 1L << ChessPosition.square(nx, ny);
+            }
+        }
+        return mask;
+    }
+
+    private static long slidingAttacks(int square, long occupancy, int[][] directions) {
+        long attacks = 0;
+        for (int[] d : directions) {
+            for (int x = ChessPosition.rowOf(square) + d[0], y = ChessPosition.colOf(square) + d[1];
+                 x >= 0 && x < 8 && y >= 0 && y < 8; x += d[0], y += d[1]) {
+                long bit = 1L << ChessPosition.square(x, y);
+                attacks |= bit;
+                if ((occupancy & bit) != 0) {
+                    break;
+                }
+            }
+        }
+        return attacks;
+    }
+
+    /**
+     * 按magic数填充攻击表，每格占用2^相关格子数个连续位置
+     */
+    private static long[] initMagics(long[] masks, long[] magics, int[] shifts, int[] offsets, int[][] directions) {
+        int total = 0;
+        for (int square = 0; square < 64; square++) {
+            offsets[square] = total;
+            total += 1 << Long.bitCount(masks[square]);
+        }
+        long[] table = new long[total];
+        for (int square = 0; square < 64; square++) {
+            long mask = masks[square];
+            shifts[square] = 64 - Long.bitCount(mask);
+            // 枚举mask的全部子集
+            long subset = 0;
+            do {
+                table[offsets[square] + (int) (subset * magics[square] >>> shifts[square])] = slidingAttacks(square, subset, directions);
+                subset = (subset - mask) & mask;
+            } while (subset != 0);
+        }
+        return table;
+    }
+}
@@ -9,7 +9,6 @@ import javax.swing.*;
 import java.awt.*;
 import java.awt.event.MouseEvent;
 import java.io.IOException;
-import java.util.List;
 
 /**
  * 这个类是一个抽象类，主要表示8*8棋盘上每个格子的棋子情况，当前有两个子类继承它，分别是EmptySlotComponent(空棋子)和RookChessComponent(车)。
@@ -43,6 +42,10 @@ public abstract class ChessComponent extends JComponent {
     protected final ChessColor chessColor;
     private boolean selected;
     private boolean Trace;
+    /**
+     * 标记为可走格子时，走到这里的静态交换结果：为正表示能净吃子，为负表示走过去会丢子
+     */
+    private int exchange;
 
     public Chessboard chessboard;
 
@@ -70,6 +73,24 @@ public abstract class ChessComponent extends JComponent {
 
     public void setTrace(boolean Trace) {
         this.Trace = Trace;
+        if (!Trace) {
+            exchange = 0;
+        }
+    }
+
+    public int getExchange() {
+        return exchange;
+    }
+
+    public void setExchange(int exchange) {
+        this.exchange = exchange;
+    }
+
+    /**
+     * @return 可走格子的标记颜色：能净吃子为绿色，走过去会丢子为橙色，其余为蓝色
+     */
+    protected Color traceColor() {
+        return exchange > 0 ? Color.GREEN : exchange < 0 ? Color.ORANGE : Color.BLUE;
     }
 
     public ChessboardPoint getChessboardPoint() {
@@ -137,7 +158,31 @@ public abstract class ChessComponent extends JComponent {
      */
     public abstract boolean canMoveTo(ChessComponent[][] chessboard, ChessboardPoint destination);
 
-    public abstract List<ChessboardPoint> trace();
+    /**
+     * @return 这个棋子所在格子在ChessPosition中的编号
+     */
+    protected int square() {
+        return ChessPosition.square(chessboardPoint.getX(), chessboardPoint.getY());
+    }
+
+    protected static int square(ChessboardPoint chessboardPoint) {
+        return ChessPosition.square(chessboardPoint.getX(), chessboardPoint.getY());
+    }
+
+    /**
+     * @return 传入棋盘的占用位棋盘，长距离棋子用它查一次攻击表，不再沿路径逐格检查
+     */
+    protected static long occupancy(ChessComponent[][] chessComponents) {
+        long occupancy = 0;
+        for (int i = 0; i < 8; i++) {
+            for (int j = 0; j < 8; j++) {
+                if (!(chessComponents[i][j] instanceof EmptySlotComponent)) {
+                    occupancy |= 1L << ChessPosition.square(i, j);
+                }
+            }
+        }
+        return occupancy;
+    }
 
     /**
      * 这个方法主要用于加载一些特定资源，如棋子图片等等。
@@ -0,0 +1,597 @@
+package model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 这个类是不依赖Swing的棋局局面，用12个long位棋盘加行棋方表示，供规则判断和分析代码使用。
+ * <br>
+ * 格子编号 square = x * 8 + y，与ChessComponent[x][y]以及存档中第x行第y个字符一一对应，
+ * 即第0行是黑方底线，第7行是白方底线。
+ * <br>
+ * 棋子编号 piece = 类型 + 颜色 * 6，类型依次为兵、马、象、车、后、王，颜色白方为0、黑方为1，空格子为EMPTY。
+ */
+public class ChessPosition {
+    public static final int WHITE = 0;
+    public static final int BLACK = 1;
+
+    public static final int PAWN = 0;
+    public static final int KNIGHT = 1;
+    public static final int BISHOP = 2;
+    public static final int ROOK = 3;
+    public static final int QUEEN = 4;
+    public static final int KING = 5;
+
+    public static final int EMPTY = -1;
+    public static final int PIECE_COUNT = 12;
+
+    /**
+     * 存档中每种棋子对应的字符，下标是棋子编号：白方小写，黑方大写，与GameController.saveGame一致
+     */
+    private static final char[] PIECE_CHARS = {'p', 'n', 'b', 'r', 'q', 'k', 'P', 'N', 'B', 'R', 'Q', 'K'};
+    public static final char EMPTY_CHAR = '_';
+
+    private final long[] pieces = new long[PIECE_COUNT];
+    private final byte[] mailbox = new byte[64];
+    private int sideToMove = WHITE;
+    /**
+     * 双方王所在的格子，王不在棋盘上时为-1
+     */
+    private final int[] kingSquares = {-1, -1};
+    /**
+     * 悔棋记录：每一步保存走法和被吃掉的棋子，makeMove压入，unmakeMove弹出
+     */
+    private int[] history = new int[256];
+    /**
+     * 每一步执行前的Zobrist哈希值，用于撤销和重复局面检测
+     */
+    private long[] keyHistory = new long[256];
+    private int ply;
+    /**
+     * 当前局面的Zobrist哈希值，随每次放子、移子和交换行棋方增量更新
+     */
+    private long key;
+    /**
+     * 只包含双方兵的Zobrist哈希值，随兵的放置和移走增量更新，用于兵形评估的缓存(见PawnHashTable)
+     */
+    private long pawnKey;
+    /**
+     * 子力和位置分的中局、残局总和(白方视角)以及局面阶段，随放子和移子增量更新，见Evaluation
+     */
+    private int midgameScore;
+    private int endgameScore;
+    private int phase;
+
+    public ChessPosition() {
+        clear();
+    }
+
+    public ChessPosition(ChessPosition another) {
+        copyFrom(another);
+    }
+
+    public static int square(int x, int y) {
+        return x * 8 + y;
+    }
+
+    public static int rowOf(int square) {
+        return square >>> 3;
+    }
+
+    public static int colOf(int square) {
+        return square & 7;
+    }
+
+    public static int makePiece(int color, int type) {
+        return color * 6 + type;
+    }
+
+    public static int typeOf(int piece) {
+        return piece % 6;
+    }
+
+    public static int colorOf(int piece) {
+        return piece / 6;
+    }
+
+    public static int colorIndex(ChessColor color) {
+        return color == ChessColor.BLACK ? BLACK : WHITE;
+    }
+
+    public static ChessColor chessColorOf(int color) {
+        return color == BLACK ? ChessColor.BLACK : ChessColor.WHITE;
+    }
+
+    public static char pieceChar(int piece) {
+        return piece == EMPTY ? EMPTY_CHAR : PIECE_CHARS[piece];
+    }
+
+    /**
+     * @return 字符对应的棋子编号，'_'返回EMPTY，无法识别的字符返回-2
+     */
+    public static int pieceOf(char c) {
+        if (c == EMPTY_CHAR) {
+            return EMPTY;
+        }
+        for (int piece = 0; piece < PIECE_COUNT; piece++) {
+            if (PIECE_CHARS[piece] == c) {
+                return piece;
+            }
+        }
+        return -2;
+    }
+
+    public void clear() {
+        for (int piece = 0; piece < PIECE_COUNT; piece++) {
+            pieces[piece] = 0L;
+        }
+        for (int square = 0; square < 64; square++) {
+            mailbox[square] = EMPTY;
+        }
+        sideToMove = WHITE;
+        kingSquares[WHITE] = -1;
+        kingSquares[BLACK] = -1;
+        ply = 0;
+        key = 0L;
+        pawnKey = 0L;
+        midgameScore = 0;
+        endgameScore = 0;
+        phase = 0;
+    }
+
+    public void copyFrom(ChessPosition another) {
+        System.arraycopy(another.pieces, 0, pieces, 0, PIECE_COUNT);
+        System.arraycopy(another.mailbox, 0, mailbox, 0, 64);
+        sideToMove = another.sideToMove;
+        kingSquares[WHITE] = another.kingSquares[WHITE];
+        kingSquares[BLACK] = another.kingSquares[BLACK];
+        if (history.length < another.ply) {
+            history = new int[another.history.length];
+            keyHistory = new long[another.history.length];
+        }
+        System.arraycopy(another.history, 0, history, 0, another.ply);
+        System.arraycopy(another.keyHistory, 0, keyHistory, 0, another.ply);
+        ply = another.ply;
+        key = another.key;
+        pawnKey = another.pawnKey;
+        midgameScore = another.midgameScore;
+        endgameScore = another.endgameScore;
+        phase = another.phase;
+    }
+
+    public int pieceAt(int square) {
+        return mailbox[square];
+    }
+
+    public long pieces(int piece) {
+        return pieces[piece];
+    }
+
+    public long pieces(int color, int type) {
+        return pieces[makePiece(color, type)];
+    }
+
+    public long occupancy(int color) {
+        int base = color * 6;
+        return pieces[base] | pieces[base + 1] | pieces[base + 2] | pieces[base + 3] | pieces[base + 4] | pieces[base + 5];
+    }
+
+    public long occupancy() {
+        return occupancy(WHITE) | occupancy(BLACK);
+    }
+
+    public int getSideToMove() {
+        return sideToMove;
+    }
+
+    public void setSideToMove(int sideToMove) {
+        if (this.sideToMove != sideToMove) {
+            key ^= Zobrist.BLACK_TO_MOVE;
+        }
+        this.sideToMove = sideToMove;
+    }
+
+    /**
+     * @return 当前局面的64位Zobrist哈希值，O(1)得到，可作为局面的标识
+     */
+    public long getKey() {
+        return key;
+    }
+
+    /**
+     * @return 只由双方兵的位置决定的哈希值，O(1)得到
+     */
+    public long getPawnKey() {
+        return pawnKey;
+    }
+
+    /**
+     * @return 子力和位置的中局分(白方视角)，O(1)得到
+     */
+    public int getMidgameScore() {
+        return midgameScore;
+    }
+
+    /**
+     * @return 子力和位置的残局分(白方视角)，O(1)得到
+     */
+    public int getEndgameScore() {
+        return endgameScore;
+    }
+
+    /**
+     * @return 局面阶段，0为只剩王和兵，Evaluation.MAX_PHASE为子力齐全
+     */
+    public int getPhase() {
+        return phase;
+    }
+
+    /**
+     * 不依赖增量更新，从头计算哈希值，用于校验
+     */
+    public long computeKey() {
+        long k = sideToMove == BLACK ? Zobrist.BLACK_TO_MOVE : 0L;
+        for (int square = 0; square < 64; square++) {
+            if (mailbox[square] != EMPTY) {
+                k ^= Zobrist.piece(mailbox[square], square);
+            }
+        }
+        return k;
+    }
+
+    /**
+     * 不依赖增量更新，从头计算兵的哈希值，用于校验
+     */
+    public long computePawnKey() {
+        long k = 0L;
+        for (int color = WHITE; color <= BLACK; color++) {
+            long bits = pieces[makePiece(color, PAWN)];
+            while (bits != 0) {
+                int square = Long.numberOfTrailingZeros(bits);
+                bits &= bits - 1;
+                k ^= Zobrist.piece(makePiece(color, PAWN), square);
+            }
+        }
+        return k;
+    }
+
+    /**
+     * @return 当前局面是否在之前出现过(行棋方相同)，只比较哈希值
+     */
+    public boolean isRepetition() {
+        for (int i = ply - 2; i >= 0; i -= 2) {
+            if (keyHistory[i] == key) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public ChessColor getSideToMoveColor() {
+        return chessColorOf(sideToMove);
+    }
+
+    /**
+     * 在空格子上放置棋子
+     */
+    public void putPiece(int square, int piece) {
+        pieces[piece] |= 1L << square;
+        mailbox[square] = (byte) piece;
+        key ^= Zobrist.piece(piece, square);
+        midgameScore += Evaluation.midgame(piece, square);
+        endgameScore += Evaluation.endgame(piece, square);
+        phase += Evaluation.PHASE_WEIGHT[typeOf(piece)];
+        if (typeOf(piece) == PAWN) {
+            pawnKey ^= Zobrist.piece(piece, square);
+        } else if (typeOf(piece) == KING) {
+            kingSquares[colorOf(piece)] = square;
+        }
+    }
+
+    /**
+     * 移走格子上的棋子，格子为空时什么也不做
+     */
+    public void removePiece(int square) {
+        int piece = mailbox[square];
+        if (piece != EMPTY) {
+            pieces[piece] &= ~(1L << square);
+            mailbox[square] = EMPTY;
+            key ^= Zobrist.piece(piece, square);
+            midgameScore -= Evaluation.midgame(piece, square);
+            endgameScore -= Evaluation.endgame(piece, square);
+            phase -= Evaluation.PHASE_WEIGHT[typeOf(piece)];
+            if (typeOf(piece) == PAWN) {
+                pawnKey ^= Zobrist.piece(piece, square);
+            } else if (typeOf(piece) == KING) {
+                kingSquares[colorOf(piece)] = pieces[piece] == 0 ? -1 : Long.numberOfTrailingZeros(pieces[piece]);
+            }
+        }
+    }
+
+    public void setPiece(int square, int piece) {
+        removePiece(square);
+        if (piece != EMPTY) {
+            putPiece(square, piece);
+        }
+    }
+
+    /**
+     * @return color一方王所在的格子，王已被吃掉时为-1
+     */
+    public int kingSquare(int color) {
+        return kingSquares[color];
+    }
+
+    /**
+     * 在给定占用情况下所有攻击square的棋子(双方都有)，从目标格反向查表得到，不遍历棋子
+     *
+     * @param occupancy 视为有子的格子，用于计算滑子被遮挡的情况
+     */
+    public long attackersTo(int square, long occupancy) {
+        long bishops = pieces[BISHOP] | pieces[QUEEN] | pieces[BISHOP + 6] | pieces[QUEEN + 6];
+        long rooks = pieces[ROOK] | pieces[QUEEN] | pieces[ROOK + 6] | pieces[QUEEN + 6];
+        return Attacks.pawnAttacks(BLACK, square) & pieces[PAWN]
+                | Attacks.pawnAttacks(WHITE, square) & pieces[PAWN + 6]
+                | Attacks.knightAttacks(square) & (pieces[KNIGHT] | pieces[KNIGHT + 6])
+                | Attacks.kingAttacks(square) & (pieces[KING] | pieces[KING + 6])
+                | Attacks.bishopAttacks(square, occupancy) & bishops
+                | Attacks.rookAttacks(square, occupancy) & rooks;
+    }
+
+    /**
+     * @return square是否受到color一方的攻击
+     */
+    public boolean isSquareAttacked(int square, int color) {
+        int base = color * 6;
+        long occupancy = occupancy();
+        return (Attacks.pawnAttacks(color ^ 1, square) & pieces[base + PAWN]) != 0
+                || (Attacks.knightAttacks(square) & pieces[base + KNIGHT]) != 0
+                || (Attacks.kingAttacks(square) & pieces[base + KING]) != 0
+                || (Attacks.bishopAttacks(square, occupancy) & (pieces[base + BISHOP] | pieces[base + QUEEN])) != 0
+                || (Attacks.rookAttacks(square, occupancy) & (pieces[base + ROOK] | pieces[base + QUEEN])) != 0;
+    }
+
+    /**
+     * @return color一方的王是否正被将军，王已被吃掉时返回false
+     */
+    public boolean isInCheck(int color) {
+        int king = kingSquares[color];
+        return king >= 0 && isSquareAttacked(king, color ^ 1);
+    }
+
+    /**
+     * 判断走法执行后走棋方的王是否安全，只做位运算，不修改局面
+     *
+     * @param move 当前局面下由MoveGenerator生成的走法
+     */
+    public boolean isLegal(int move) {
+        int from = Move.from(move), to = Move.to(move);
+        int color = colorOf(mailbox[from]);
+        int king = typeOf(mailbox[from]) == KING ? to : kingSquares[color];
+        if (king < 0) {
+            return true;
+        }
+        long occupancy = (occupancy() & ~(1L << from)) | 1L << to;
+        return (attackersTo(king, occupancy) & occupancy(color ^ 1) & ~(1L << to)) == 0;
+    }
+
+    /**
+     * 把from上的棋子移动到to，to上原有的棋子被吃掉，不改变行棋方
+     */
+    public void movePiece(int from, int to) {
+        int piece = mailbox[from];
+        removePiece(from);
+        setPiece(to, piece);
+    }
+
+    /**
+     * 执行走法(包括升变)并交换行棋方，同时记录悔棋信息，之后可以用unmakeMove在O(1)时间内撤销
+     *
+     * @param move 编码后的走法，见Move
+     */
+    public void makeMove(int move) {
+        int from = Move.from(move), to = Move.to(move), promotion = Move.promotion(move);
+        int piece = mailbox[from];
+        int captured = mailbox[to];
+        if (ply == history.length) {
+            history = Arrays.copyOf(history, ply * 2);
+            keyHistory = Arrays.copyOf(keyHistory, ply * 2);
+        }
+        keyHistory[ply] = key;
+        history[ply++] = move | (captured + 1) << 16;
+        removePiece(from);
+        if (captured != EMPTY) {
+            removePiece(to);
+        }
+        putPiece(to, promotion == 0 ? piece : makePiece(colorOf(piece), promotion));
+        sideToMove ^= 1;
+        key ^= Zobrist.BLACK_TO_MOVE;
+    }
+
+    /**
+     * 撤销最近一次makeMove，恢复被吃掉的棋子、升变前的兵和行棋方
+     */
+    public void unmakeMove() {
+        int record = history[--ply];
+        int from = Move.from(record), to = Move.to(record);
+        int captured = (record >>> 16) - 1;
+        int piece = mailbox[to];
+        if (Move.promotion(record) != 0) {
+            piece = makePiece(colorOf(piece), PAWN);
+        }
+        removePiece(to);
+        putPiece(from, piece);
+        if (captured != EMPTY) {
+            putPiece(to, captured);
+        }
+        sideToMove = colorOf(piece);
+        key = keyHistory[ply];
+    }
+
+    /**
+     * @return 从局面建立(或clear)以来执行过的、尚未撤销的步数
+     */
+    public int getPly() {
+        return ply;
+    }
+
+    /**
+     * @return 最近一次执行的走法，没有时返回Move.NONE
+     */
+    public int lastMove() {
+        return ply == 0 ? Move.NONE : history[ply - 1] & 0xFFFF;
+    }
+
+    /**
+     * @return 最近一次走法吃掉的棋子，没有吃子时为EMPTY
+     */
+    public int lastCaptured() {
+        return ply == 0 ? EMPTY : (history[ply - 1] >>> 16) - 1;
+    }
+
+    /**
+     * 从界面上的8*8棋子数组构造局面
+     *
+     * @param chessComponents 棋盘
+     * @param currentColor    当前行棋方
+     */
+    public static ChessPosition fromComponents(ChessComponent[][] chessComponents, ChessColor currentColor) {
+        ChessPosition position = new ChessPosition();
+        for (int i = 0; i < 8; i++) {
+            for (int j = 0; j < 8; j++) {
+                int piece = pieceOf(chessComponents[i][j]);
+                if (piece != EMPTY) {
+                    position.putPiece(square(i, j), piece);
+                }
+            }
+        }
+        position.setSideToMove(colorIndex(currentColor));
+        return position;
+    }
+
+    /**
+     * @return 界面棋子对应的棋子编号，空位置返回EMPTY
+     */
+    public static int pieceOf(ChessComponent chessComponent) {
+        int type;
+        if (chessComponent instanceof PawnChessComponentWhite) {
+            return makePiece(WHITE, PAWN);
+        } else if (chessComponent instanceof PawnChessComponentBlack) {
+            return makePiece(BLACK, PAWN);
+        } else if (chessComponent instanceof KnightChessComponent) {
+            type = KNIGHT;
+        } else if (chessComponent instanceof BishopChessComponent) {
+            type = BISHOP;
+        } else if (chessComponent instanceof RookChessComponent) {
+            type = ROOK;
+        } else if (chessComponent instanceof QueenChessComponent) {
+            type = QUEEN;
+        } else if (chessComponent instanceof KingChessComponent) {
+            type = KING;
+        } else {
+            return EMPTY;
+        }
+        return makePiece(colorIndex(chessComponent.getChessColor()), type);
+    }
+
+    /**
+     * 从存档的前9行(8行棋盘加1行行棋方)构造局面，格式与GameController.saveGame写出的一致
+     *
+     * @param lines 存档内容，至少包含9行
+     * @throws IllegalArgumentException 棋盘或行棋方格式错误
+     */
+    public static ChessPosition fromSaveLines(List<String> lines) {
+        if (lines.size() < 9) {
+            throw new IllegalArgumentException("save data needs 8 board lines and a side line");
+        }
+        ChessPosition position = new ChessPosition();
+        for (int i = 0; i < 8; i++) {
+            String line = lines.get(i);
+            if (line.length() != 8) {
+                throw new IllegalArgumentException("board line " + (i + 1) + " is not 8 characters");
+            }
+            for (int j = 0; j < 8; j++) {
+                int piece = pieceOf(line.charAt(j));
+                if (piece == -2) {
+                    throw new IllegalArgumentException("unknown piece '" + line.charAt(j) + "' on line " + (i + 1));
+                }
+                if (piece != EMPTY) {
+                    position.putPiece(square(i, j), piece);
+                }
+            }
+        }
+        String side = lines.get(8);
+        if (side.equals("w")) {
+            position.setSideToMove(WHITE);
+        } else if (side.equals("b")) {
+            position.setSideToMove(BLACK);
+        } else {
+            throw new IllegalArgumentException("side line must be 'w' or 'b'");
+        }
+        return position;
+    }
+
+    /**
+     * @return 存档格式的前9行：8行棋盘和1行行棋方
+     */
+    public List<String> toSaveLines() {
+        List<String> lines = new ArrayList<>(9);
+        StringBuilder builder = new StringBuilder(8);
+        for (int i = 0; i < 8; i++) {
+            builder.setLength(0);
+            for (int j = 0; j < 8; j++) {
+                builder.append(pieceChar(mailbox[square(i, j)]));
+            }
+            lines.add(builder.toString());
+        }
+        lines.add(sideToMove == WHITE ? "w" : "b");
+        return lines;
+    }
+
+    /**
+     * @return 初始局面，与Chessboard.initChessboard摆放的一致
+     */
+    public static ChessPosition initialPosition() {
+        ChessPosition position = new ChessPosition();
+        int[] backRank = {ROOK, KNIGHT, BISHOP, KING, QUEEN, BISHOP, KNIGHT, ROOK};
+        for (int j = 0; j < 8; j++) {
+            position.putPiece(square(0, j), makePiece(BLACK, backRank[j]));
+            position.putPiece(square(1, j), makePiece(BLACK, PAWN));
+            position.putPiece(square(6, j), makePiece(WHITE, PAWN));
+            position.putPiece(square(7, j), makePiece(WHITE, backRank[j]));
+        }
+        return position;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof ChessPosition)) {
+            return false;
+        }
+        ChessPosition another = (ChessPosition) o;
+        if (sideToMove != another.sideToMove) {
+            return false;
+        }
+        for (int piece = 0; piece < PIECE_COUNT; piece++) {
+            if (pieces[piece] != another.pieces[piece]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        return (int) (key ^ (key >>> 32));
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder(90);
+        for (String line : toSaveLines()) {
+            builder.append(line).append('\n');
+        }
+        return builder.toString();
+    }
+}
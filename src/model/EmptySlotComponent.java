@@ -5,8 +5,6 @@ import view.ChessboardPoint;
 
 import java.awt.*;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
 
 /**
  * 这个类表示棋盘上的空位置
@@ -26,11 +24,6 @@ public class EmptySlotComponent extends ChessComponent {
         return false;
     }
 
-    @Override
-    public List<ChessboardPoint> trace() {
-        return new ArrayList<>();
-    }
-
 
     protected void paintComponent(Graphics g) {
         super.paintComponent(g);
@@ -42,7 +35,7 @@ public class EmptySlotComponent extends ChessComponent {
             g.drawOval(0, 0, getWidth(), getHeight());
         }
         if (isTrace()) {
-            g.setColor(Color.BLUE);
+            g.setColor(traceColor());
             g.drawOval(0, 0, getWidth(), getHeight());
             this.setTrace(false);
         }
@@ -0,0 +1,389 @@
+package model;
+
+/**
+ * 这个类是局面评估：子力和位置分(中局、残局各一套)由ChessPosition在放子和移子时增量维护，
+ * 评估时只需再按棋子计算机动性和王的安全，加上兵形(可由PawnHashTable缓存)，然后按局面阶段在中局分和残局分之间插值。
+ * <br>
+ * 位置表以白方视角书写，下标就是格子编号(第0行是白兵前进的方向)；黑方棋子取上下翻转后的格子，分数取负。
+ * 分数单位是百分之一个兵，除evaluate外均以白方视角给出。
+ */
+public final class Evaluation {
+    /**
+     * 阶段满值：双方全部的马、象、车、后都在时为24，只剩王和兵时为0
+     */
+    public static final int MAX_PHASE = 24;
+    static final int[] PHASE_WEIGHT = {0, 1, 1, 2, 4, 0};
+
+    private static final int[] MG_VALUE = {82, 337, 365, 477, 1025, 0};
+    private static final int[] EG_VALUE = {94, 281, 297, 512, 936, 0};
+
+    private static final int[] PAWN_TABLE = {
+            0, 0, 0, 0, 0, 0, 0, 0,
+            50, 50, 50, 50, 50, 50, 50, 50,
+            10, 10, 20, 30, 30, 20, 10, 10,
+            5, 5, 10, 25, 25, 10, 5, 5,
+            0, 0, 0, 20, 20, 0, 0, 0,
+            5, -5, -10, 0, 0, -10, -5, 5,
+            5, 10, 10, -20, -20, 10, 10, 5,
+            0, 0, 0, 0, 0, 0, 0, 0
+    };
+    /**
+     * 残局中兵越接近升变越值钱，按行给分
+     */
+    private static final int[] PAWN_EG_ROW = {0, 80, 50, 30, 15, 5, 0, 0};
+    private static final int[] KNIGHT_TABLE = {
+            -50, -40, -30, -30, -30, -30, -40, -50,
+            -40, -20, 0, 0, 0, 0, -20, -40,
+            -30, 0, 10, 15, 15, 10, 0, -30,
+            -30, 5, 15, 20, 20, 15, 5, -30,
+            -30, 0, 15, 20, 20, 15, 0, -30,
+            -30, 5, 10, 15, 15, 10, 5, -30,
+            -40, -20, 0, 5, 5, 0, -20, -40,
+            -50, -40, -30, -30, -30, -30, -40, -50
+    };
+    private static final int[] BISHOP_TABLE = {
+            -20, -10, -10, -10, -10, -10, -10, -20,
+            -10, 0, 0, 0, 0, 0, 0, -10,
+            -10, 0, 5, 10, 10, 5, 0, -10,
+            -10, 5, 5, 10, 10, 5, 5, -10,
+            -10, 0, 10, 10, 10, 10, 0, -10,
+            -10, 10, 10, 10, 10, 10, 10, -10,
+            -10, 5, 0, 0, 0, 0, 5, -10,
+            -20, -10, -10, -10, -10, -10, -10, -20
+    };
+    private static final int[] ROOK_TABLE = {
+            0, 0, 0, 0, 0, 0, 0, 0,
+            5, 10, 10, 10, 10, 10, 10, 5,
+            -5, 0, 0, 0, 0, 0, 0, -5,
+            -5, 0, 0, 0, 0, 0, 0, -5,
+            -5, 0, 0, 0, 0, 0, 0, -5,
+            -5, 0, 0, 0, 0, 0, 0, -5,
+            -5, 0, 0, 0, 0, 0, 0, -5,
+            0, 0, 0, 5, 5, 0, 0, 0
+    };
+    private static final int[] QUEEN_TABLE = {
+            -20, -10, -10, -5, -5, -10, -10, -20,
+            -10, 0, 0, 0, 0, 0, 0, -10,
+            -10, 0, 5, 5, 5, 5, 0, -10,
+            -5, 0, 5, 5, 5, 5, 0, -5,
+            0, 0, 5, 5, 5, 5, 0, -5,
+            -10, 5, 5, 5, 5, 5, 0, -10,
+            -10, 0, 5, 0, 0, 0, 0, -10,
+            -20, -10, -10, -5, -5, -10, -10, -20
+    };
+    private static final int[] KING_MG_TABLE = {
+            -30, -40, -40, -50, -50, -40, -40, -30,
+            -30, -40, -40, -50, -50, -40, -40, -30,
+            -30, -40, -40, -50, -50, -40, -40, -30,
+            -30, -40, -40, -50, -50, -40, -40, -30,
+            -20, -30, -30, -40, -40, -30, -30, -20,
+            -10, -20, -20, -20, -20, -20, -20, -10,
+            20, 20, 0, 0, 0, 0, 20, 20,
+            20, 30, 10, 0, 0, 10, 30, 20
+    };
+    private static final int[] KING_EG_TABLE = {
+            -50, -40, -30, -20, -20, -30, -40, -50,
+            -30, -20, -10, 0, 0, -10, -20, -30,
+            -30, -10, 20, 30, 30, 20, -10, -30,
+            -30, -10, 30, 40, 40, 30, -10, -30,
+            -30, -10, 30, 40, 40, 30, -10, -30,
+            -30, -10, 20, 30, 30, 20, -10, -30,
+            -30, -30, 0, 0, 0, 0, -30, -30,
+            -50, -30, -30, -30, -30, -30, -30, -50
+    };
+
+    /**
+     * 机动性：每多控制一格的分数，以及各类棋子的平均控制格数
+     */
+    private static final int[] MOBILITY_MG = {0, 4, 5, 2, 1, 0};
+    private static final int[] MOBILITY_EG = {0, 4, 5, 4, 2, 0};
+    private static final int[] MOBILITY_BASE = {0, 4, 7, 7, 14, 0};
+    /**
+     * 王的安全：攻击王周围格子的权重，以及王前每个己方兵的分数
+     */
+    private static final int[] KING_ATTACK_WEIGHT = {0, 2, 2, 3, 5, 0};
+    private static final int PAWN_SHIELD = 12;
+    /**
+     * 兵形：通路兵按离升变还有几行给分，孤兵和叠兵(同一列每多一个)扣分
+     */
+    private static final int[] PASSED_MG = {0, 60, 40, 25, 15, 10, 5, 0};
+    private static final int[] PASSED_EG = {0, 120, 80, 50, 30, 15, 10, 0};
+    private static final int ISOLATED_MG = -10, ISOLATED_EG = -15;
+    private static final int DOUBLED_MG = -10, DOUBLED_EG = -20;
+
+    private static final long[] FILE_MASK = new long[8];
+    private static final long[] ADJACENT_FILES = new long[8];
+    /**
+     * 兵前方同列和相邻两列的格子，这些格子上没有对方兵时为通路兵，下标为[颜色][格子]
+     */
+    private static final long[][] PASSED_MASK = new long[2][64];
+
+    /**
+     * 棋子在某格的中局分和残局分(含子力)，白方为正、黑方为负，下标为[棋子编号][格子]
+     */
+    private static final int[][] MG_TABLE = new int[ChessPosition.PIECE_COUNT][64];
+    private static final int[][] EG_TABLE = new int[ChessPosition.PIECE_COUNT][64];
+
+    static {
+        for (int y = 0; y < 8; y++) {
+            FILE_MASK[y] = 0x0101010101010101L << y;
+        }
+        for (int y = 0; y < 8; y++) {
+            ADJACENT_FILES[y] = (y > 0 ? FILE_MASK[y - 1] : 0) | (y < 7 ? FILE_MASK[y + 1] : 0);
+        }
+        for (int square = 0; square < 64; square++) {
+            long files = FILE_MASK[ChessPosition.colOf(square)] | ADJACENT_FILES[ChessPosition.colOf(square)];
+            int row = ChessPosition.rowOf(square);
+            // 白兵向第0行前进，黑兵向第7行前进
+            PASSED_MASK[ChessPosition.WHITE][square] = files & ((1L << row * 8) - 1);
+            PASSED_MASK[ChessPosition.BLACK][square] = row == 7 ? 0 : files & -(1L << (row + 1) * 8);
+        }
+        int[][] mgTables = {PAWN_TABLE, KNIGHT_TABLE, BISHOP_TABLE, ROOK_TABLE, QUEEN_TABLE, KING_MG_TABLE};
+        int[][] egTables = {new int[64], KNIGHT_TABLE, BISHOP_TABLE, ROOK_TABLE, QUEEN_TABLE, KING_EG_TABLE};
+        for (int square = 0; square < 64; square++) {
+            egTables[ChessPosition.PAWN][square] = PAWN_EG_ROW[ChessPosition.rowOf(square)];
+        }
+        for (int type = ChessPosition.PAWN; type <= ChessPosition.KING; type++) {
+            for (int square = 0; square < 64; square++) {
+                int white = ChessPosition.makePiece(ChessPosition.WHITE, type);
+                int black = ChessPosition.makePiece(ChessPosition.BLACK, type);
+                MG_TABLE[white][square] = MG_VALUE[type] + mgTables[type][square];
+                EG_TABLE[white][square] = EG_VALUE[type] + egTables[type][square];
+                MG_TABLE[black][square] = -(MG_VALUE[type] + mgTables[type][square ^ 56]);
+                EG_TABLE[black][square] = -(EG_VALUE[type] + egTables[type][square ^ 56]);
+            }
+        }
+    }
+
+    private Evaluation() {
+    }
+
+    /**
+     * @return 棋子在某格贡献的中局分(白方视角)，供ChessPosition增量更新
+     */
+    static int midgame(int piece, int square) {
+        return MG_TABLE[piece][square];
+    }
+
+    static int endgame(int piece, int square) {
+        return EG_TABLE[piece][square];
+    }
+
+    /**
+     * @return 行棋方视角的评估分，每次都重新计算兵形
+     */
+    public static int evaluate(ChessPosition position) {
+        return evaluate(position, null);
+    }
+
+    /**
+     * @param pawns 兵形分的缓存，为null时不使用缓存
+     * @return 行棋方视角的评估分
+     */
+    public static int evaluate(ChessPosition position, PawnHashTable pawns) {
+        int structure = pawnStructure(position, pawns);
+        int mg = position.getMidgameScore() + midgameOf(structure), eg = position.getEndgameScore() + endgameOf(structure);
+        for (int color = ChessPosition.WHITE; color <= ChessPosition.BLACK; color++) {
+            int sign = color == ChessPosition.WHITE ? 1 : -1;
+            int mobility = mobility(position, color);
+            int safety = kingSafety(position, color);
+            mg += sign * (midgameOf(mobility) + midgameOf(safety));
+            eg += sign * (endgameOf(mobility) + endgameOf(safety));
+        }
+        int score = taper(position, mg, eg);
+        return position.getSideToMove() == ChessPosition.WHITE ? score : -score;
+    }
+
+    /**
+     * 逐项计算评估，用于调试；结果与evaluate一致
+     */
+    public static Breakdown breakdown(ChessPosition position) {
+        return new Breakdown(position);
+    }
+
+    /**
+     * 各项评估分，都以白方视角给出中局、残局两个值
+     */
+    public static class Breakdown {
+        public final int phase;
+        public final int materialMg, materialEg;
+        public final int pieceSquareMg, pieceSquareEg;
+        public final int mobilityMg, mobilityEg;
+        public final int kingSafetyMg, kingSafetyEg;
+        public final int pawnStructureMg, pawnStructureEg;
+        public final int total;
+        private final ChessPosition position;
+
+        private Breakdown(ChessPosition position) {
+            this.position = position;
+            phase = Math.min(position.getPhase(), MAX_PHASE);
+            int mg = 0, eg = 0;
+            for (int type = ChessPosition.PAWN; type <= ChessPosition.KING; type++) {
+                int count = Long.bitCount(position.pieces(ChessPosition.WHITE, type)) - Long.bitCount(position.pieces(ChessPosition.BLACK, type));
+                mg += count * MG_VALUE[type];
+                eg += count * EG_VALUE[type];
+            }
+            materialMg = mg;
+            materialEg = eg;
+            pieceSquareMg = position.getMidgameScore() - mg;
+            pieceSquareEg = position.getEndgameScore() - eg;
+            int white = mobility(position, ChessPosition.WHITE), black = mobility(position, ChessPosition.BLACK);
+            mobilityMg = midgameOf(white) - midgameOf(black);
+            mobilityEg = endgameOf(white) - endgameOf(black);
+            white = kingSafety(position, ChessPosition.WHITE);
+            black = kingSafety(position, ChessPosition.BLACK);
+            kingSafetyMg = midgameOf(white) - midgameOf(black);
+            kingSafetyEg = endgameOf(white) - endgameOf(black);
+            int structure = pawnStructure(position);
+            pawnStructureMg = midgameOf(structure);
+            pawnStructureEg = endgameOf(structure);
+            total = taper(position, materialMg + pieceSquareMg + mobilityMg + kingSafetyMg + pawnStructureMg,
+                    materialEg + pieceSquareEg + mobilityEg + kingSafetyEg + pawnStructureEg);
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder();
+            builder.append(String.format("%-12s %6s %6s %6s\n", "term", "mg", "eg", "total"));
+            appendTerm(builder, "material", materialMg, materialEg);
+            appendTerm(builder, "piece-square", pieceSquareMg, pieceSquareEg);
+            appendTerm(builder, "mobility", mobilityMg, mobilityEg);
+            appendTerm(builder, "king safety", kingSafetyMg, kingSafetyEg);
+            appendTerm(builder, "pawns", pawnStructureMg, pawnStructureEg);
+            builder.append(String.format("phase %d/%d, total %d (white's view)\n", phase, MAX_PHASE, total));
+            return builder.toString();
+        }
+
+        private void appendTerm(StringBuilder builder, String name, int mg, int eg) {
+            builder.append(String.format("%-12s %6d %6d %6d\n", name, mg, eg, taper(position, mg, eg)));
+        }
+    }
+
+    /**
+     * 按阶段在中局分和残局分之间线性插值，升变可能使阶段超过满值，按满值计算
+     */
+    private static int taper(ChessPosition position, int mg, int eg) {
+        int phase = Math.min(position.getPhase(), MAX_PHASE);
+        return (mg * phase + eg * (MAX_PHASE - phase)) / MAX_PHASE;
+    }
+
+    /**
+     * 中局分和残局分打包在一个int里：低16位是中局分，高16位是残局分
+     */
+    private static int pack(int mg, int eg) {
+        return (eg << 16) + mg;
+    }
+
+    private static int midgameOf(int packed) {
+        return (short) packed;
+    }
+
+    private static int endgameOf(int packed) {
+        return (packed + 0x8000) >> 16;
+    }
+
+    /**
+     * @return color一方马、象、车、后可以走到的格子数(不含己方棋子占据的格子)相对平均值的分数
+     */
+    private static int mobility(ChessPosition position, int color) {
+        long occupancy = position.occupancy();
+        long own = position.occupancy(color);
+        int mg = 0, eg = 0;
+        for (int type = ChessPosition.KNIGHT; type <= ChessPosition.QUEEN; type++) {
+            long bits = position.pieces(color, type);
+            while (bits != 0) {
+                int square = Long.numberOfTrailingZeros(bits);
+                bits &= bits - 1;
+                int count = Long.bitCount(Attacks.attacks(type, square, occupancy) & ~own) - MOBILITY_BASE[type];
+                mg += count * MOBILITY_MG[type];
+                eg += count * MOBILITY_EG[type];
+            }
+        }
+        return pack(mg, eg);
+    }
+
+    /**
+     * @return color一方王的安全分(只计中局)：对方棋子攻击王周围格子扣分，王前的己方兵加分
+     */
+    private static int kingSafety(ChessPosition position, int color) {
+        int king = position.kingSquare(color);
+        if (king < 0) {
+            return 0;
+        }
+        long zone = Attacks.kingAttacks(king) | 1L << king;
+        long occupancy = position.occupancy();
+        int enemy = color ^ 1;
+        int units = 0, attackers = 0;
+        for (int type = ChessPosition.KNIGHT; type <= ChessPosition.QUEEN; type++) {
+            long bits = position.pieces(enemy, type);
+            while (bits != 0) {
+                int square = Long.numberOfTrailingZeros(bits);
+                bits &= bits - 1;
+                int hits = Long.bitCount(Attacks.attacks(type, square, occupancy) & zone);
+                if (hits > 0) {
+                    units += hits * KING_ATTACK_WEIGHT[type];
+                    attackers++;
+                }
+            }
+        }
+        // 只有一个棋子攻击时威胁不大，攻击者越多扣分增长越快
+        int penalty = attackers >= 2 ? Math.min(units * units, 500) : 0;
+        // 王前方(兵前进方向)的三格
+        long front = Attacks.pawnAttacks(color, king) | (color == ChessPosition.WHITE ? (1L << king) >>> 8 : (1L << king) << 8);
+        int shield = Long.bitCount(front & position.pieces(color, ChessPosition.PAWN));
+        return pack(shield * PAWN_SHIELD - penalty, 0);
+    }
+
+    /**
+     * @return 双方兵形分之差(白方视角，打包)，先查缓存，未命中时计算并存入
+     */
+    private static int pawnStructure(ChessPosition position, PawnHashTable pawns) {
+        if (pawns == null) {
+            return pawnStructure(position);
+        }
+        long pawnKey = position.getPawnKey();
+        long data = pawns.probe(pawnKey);
+        if (PawnHashTable.isHit(data)) {
+            return PawnHashTable.packedScore(data);
+        }
+        int structure = pawnStructure(position);
+        pawns.store(pawnKey, structure);
+        return structure;
+    }
+
+    private static int pawnStructure(ChessPosition position) {
+        return pawnStructure(position, ChessPosition.WHITE) - pawnStructure(position, ChessPosition.BLACK);
+    }
+
+    /**
+     * @return color一方的兵形分：通路兵加分，孤兵、叠兵扣分，只与双方兵的位置有关
+     */
+    private static int pawnStructure(ChessPosition position, int color) {
+        long own = position.pieces(color, ChessPosition.PAWN);
+        long enemy = position.pieces(color ^ 1, ChessPosition.PAWN);
+        int mg = 0, eg = 0;
+        for (int y = 0; y < 8; y++) {
+            int count = Long.bitCount(own & FILE_MASK[y]);
+            if (count > 1) {
+                mg += (count - 1) * DOUBLED_MG;
+                eg += (count - 1) * DOUBLED_EG;
+            }
+        }
+        long bits = own;
+        while (bits != 0) {
+            int square = Long.numberOfTrailingZeros(bits);
+            bits &= bits - 1;
+            if ((own & ADJACENT_FILES[ChessPosition.colOf(square)]) == 0) {
+                mg += ISOLATED_MG;
+                eg += ISOLATED_EG;
+            }
+            // 前方还有己方兵时只给最前面的一个计通路兵
+            if ((enemy & PASSED_MASK[color][square]) == 0 && (own & PASSED_MASK[color][square] & FILE_MASK[ChessPosition.colOf(square)]) == 0) {
+                int distance = color == ChessPosition.WHITE ? ChessPosition.rowOf(square) : 7 - ChessPosition.rowOf(square);
+                mg += PASSED_MG[distance];
+                eg += PASSED_EG[distance];
+            }
+        }
+        return pack(mg, eg);
+    }
+}
@@ -0,0 +1,233 @@
+package model;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 这个类是二进制存档：文件头、最终局面的压缩快照和从初始局面开始的全部走法。
+ * <br>
+ * 载入时直接得到最终局面，不需要逐步重放；只有悔棋、复盘等需要历史的时候才调用replay在ChessPosition上重放，不经过Swing组件。
+ * <br>
+ * 文件布局(大端序)：
+ * <ul>
+ * <li>4字节魔数"CHSV"，1字节版本号</li>
+ * <li>局面快照：8字节占用位棋盘，每个有子的格子按编号顺序占半个字节的棋子编号，1字节行棋方，8字节Zobrist哈希值(校验用)</li>
+ * <li>走法：变长整数的步数，每步16位，即Move的编码(起点、终点、升变)</li>
+ * </ul>
+ * 一盘100步的棋约240字节，文本存档约700字节。
+ */
+public class GameRecord {
+    public static final String EXTENSION = "chs";
+    public static final int VERSION = 1;
+    private static final int MAGIC = 'C' << 24 | 'H' << 16 | 'S' << 8 | 'V';
+    /**
+     * 步数的上限，超过时认为文件已损坏；实际对局远少于这个数
+     */
+    private static final int MAX_MOVE_COUNT = 1 << 16;
+
+    private final ChessPosition position;
+    private final int[] moves;
+
+    /**
+     * @param position 最终局面
+     * @param moves    从初始局面开始的走法
+     */
+    public GameRecord(ChessPosition position, int[] moves) {
+        this.position = new ChessPosition(position);
+        this.moves = moves.clone();
+    }
+
+    /**
+     * 由Chessboard.step中记录的走法构造
+     *
+     * @throws IllegalArgumentException 走法格式错误
+     */
+    public static GameRecord fromSteps(ChessPosition position, List<String> steps) {
+        int[] moves = new int[steps.size()];
+        for (int i = 0; i < moves.length; i++) {
+            moves[i] = Move.fromStep(steps.get(i));
+        }
+        return new GameRecord(position, moves);
+    }
+
+    /**
+     * @return 最终局面的副本，没有悔棋记录
+     */
+    public ChessPosition getPosition() {
+        return new ChessPosition(position);
+    }
+
+    public int getMoveCount() {
+        return moves.length;
+    }
+
+    public int getMove(int index) {
+        return moves[index];
+    }
+
+    /**
+     * @return Chessboard.step格式的走法列表；升变字符的大小写由终点所在的底线决定
+     */
+    public ArrayList<String> toSteps() {
+        ArrayList<String> steps = new ArrayList<>(moves.length);
+        for (int move : moves) {
+            int color = ChessPosition.rowOf(Move.to(move)) == 0 ? ChessPosition.WHITE : ChessPosition.BLACK;
+            steps.add(Move.toStep(move, color));
+        }
+        return steps;
+    }
+
+    /**
+     * 从初始局面重放全部走法，得到带有完整悔棋记录的最终局面
+     *
+     * @throws IllegalArgumentException 某一步的起点没有棋子，或重放结果与快照不一致
+     */
+    public ChessPosition replay() {
+        ChessPosition replayed = ChessPosition.initialPosition();
+        for (int i = 0; i < moves.length; i++) {
+            if (replayed.pieceAt(Move.from(moves[i])) == ChessPosition.EMPTY) {
+                throw new IllegalArgumentException("move " + (i + 1) + " starts from an empty square");
+            }
+            replayed.makeMove(moves[i]);
+        }
+        // 倒计时结束时会不走棋直接换手，行棋方以快照为准
+        replayed.setSideToMove(position.getSideToMove());
+        if (!replayed.equals(position)) {
+            throw new IllegalArgumentException("moves do not lead to the saved position");
+        }
+        return replayed;
+    }
+
+    public void write(OutputStream out) throws IOException {
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(MAGIC);
+        data.writeByte(VERSION);
+        long occupancy = position.occupancy();
+        data.writeLong(occupancy);
+        int nibbles = 0, count = 0;
+        for (long bits = occupancy; bits != 0; bits &= bits - 1) {
+            nibbles = nibbles << 4 | position.pieceAt(Long.numberOfTrailingZeros(bits));
+            if (++count % 2 == 0) {
+                data.writeByte(nibbles);
+                nibbles = 0;
+            }
+        }
+        if (count % 2 != 0) {
+            data.writeByte(nibbles << 4);
+        }
+        data.writeByte(position.getSideToMove());
+        data.writeLong(position.getKey());
+        writeVarInt(data, moves.length);
+        for (int move : moves) {
+            data.writeShort(move);
+        }
+        data.flush();
+    }
+
+    /**
+     * 步数超过上限、文件比步数短或走法编码不合法时都按内容损坏处理，不会因为损坏的步数一次分配过大的数组
+     *
+     * @throws IOException 不是二进制存档、版本不支持或内容损坏
+     */
+    public static GameRecord read(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(in);
+        if (data.readInt() != MAGIC) {
+            throw new IOException("not a binary save file");
+        }
+        int version = data.readUnsignedByte();
+        if (version != VERSION) {
+            throw new IOException("unsupported save version " + version);
+        }
+        ChessPosition position = new ChessPosition();
+        long occupancy = data.readLong();
+        int nibbles = 0, count = 0;
+        for (long bits = occupancy; bits != 0; bits &= bits - 1) {
+            if (count++ % 2 == 0) {
+                nibbles = data.readUnsignedByte();
+            } else {
+                nibbles <<= 4;
+            }
+            int piece = nibbles >>> 4 & 15;
+            if (piece >= ChessPosition.PIECE_COUNT) {
+                throw new IOException("bad piece in save file");
+            }
+            position.putPiece(Long.numberOfTrailingZeros(bits), piece);
+        }
+        int side = data.readUnsignedByte();
+        if (side != ChessPosition.WHITE && side != ChessPosition.BLACK) {
+            throw new IOException("bad side to move in save file");
+        }
+        position.setSideToMove(side);
+        if (data.readLong() != position.getKey()) {
+            throw new IOException("save file is corrupted");
+        }
+        int moveCount = readVarInt(data);
+        if (moveCount > MAX_MOVE_COUNT) {
+            throw new IOException("bad move count in save file");
+        }
+        // 按实际读到的走法扩容，文件比步数短时在读到末尾处停止
+        int[] moves = new int[Math.min(moveCount, 256)];
+        for (int i = 0; i < moveCount; i++) {
+            if (i == moves.length) {
+                moves = Arrays.copyOf(moves, Math.min(moveCount, i * 2));
+            }
+            try {
+                moves[i] = data.readUnsignedShort();
+            } catch (EOFException e) {
+                throw new IOException("save file ends after " + i + " of " + moveCount + " moves");
+            }
+            if (!isValidMove(moves[i])) {
+                throw new IOException("bad move " + (i + 1) + " in save file");
+            }
+        }
+        return new GameRecord(position, moves);
+    }
+
+    /**
+     * 只检查编码：第15位为0，起点和终点不同，升变只能是马、象、车、后
+     */
+    private static boolean isValidMove(int move) {
+        int promotion = Move.promotion(move);
+        return (move & ~0x7FFF) == 0 && Move.from(move) != Move.to(move)
+                && (promotion == 0 || promotion >= ChessPosition.KNIGHT && promotion <= ChessPosition.QUEEN);
+    }
+
+    public void write(Path path) throws IOException {
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(path))) {
+            write(out);
+        }
+    }
+
+    public static GameRecord read(Path path) throws IOException {
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(path))) {
+            return read(in);
+        }
+    }
+
+    private static void writeVarInt(DataOutputStream data, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            data.writeByte(value & 0x7F | 0x80);
+            value >>>= 7;
+        }
+        data.writeByte(value);
+    }
+
+    private static int readVarInt(DataInputStream data) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = data.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                if (value < 0) {
+                    break;
+                }
+                return value;
+            }
+        }
+        throw new IOException("bad move count in save file");
+    }
+}
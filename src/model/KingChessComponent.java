@@ -1,15 +1,12 @@
 package model;
 
 import controller.ClickController;
-import view.ChessGameFrame;
 import view.ChessboardPoint;
 
 import javax.imageio.ImageIO;
 import java.awt.*;
 import java.io.File;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
 
 /**
  * 这个类表示国际象棋里面的车
@@ -78,46 +75,7 @@ public class KingChessComponent extends ChessComponent {
 
     @Override
     public boolean canMoveTo(ChessComponent[][] chessComponents, ChessboardPoint destination) {
-        ChessboardPoint source = getChessboardPoint();
-        return Math.abs(destination.getX() - source.getX()) <= 1 && Math.abs(destination.getY() - source.getY()) <= 1;
-    }
-
-    public List<ChessboardPoint> trace() {
-        ChessComponent[][] chessboard = ChessGameFrame.gameController.getChessboard().getChessComponents();
-        List<ChessboardPoint> canto = new ArrayList<>();
-        int x = getChessboardPoint().getX();
-        int y = getChessboardPoint().getY();
-        if (x + 1 <= 7) {
-            canto.add(new ChessboardPoint(x + 1, y));
-            if (y + 1 <= 7) {
-                canto.add(new ChessboardPoint(x + 1, y + 1));
-            }
-            if (y - 1 >= 0) {
-                canto.add(new ChessboardPoint(x + 1, y - 1));
-            }
-        }
-        if (x - 1 >= 0) {
-            canto.add(new ChessboardPoint(x - 1, y));
-            if (y + 1 <= 7) {
-                canto.add(new ChessboardPoint(x - 1, y + 1));
-            }
-            if (y - 1 >= 0) {
-                canto.add(new ChessboardPoint(x - 1, y - 1));
-            }
-        }
-        if (y + 1 <= 7) {
-            canto.add(new ChessboardPoint(x, y + 1));
-        }
-        if (y - 1 >= 0) {
-            canto.add(new ChessboardPoint(x, y - 1));
-        }
-        List<ChessboardPoint> answer = new ArrayList<>();
-        for (ChessboardPoint canMovePoint : canto) {
-            if (chessboard[canMovePoint.getX()][canMovePoint.getY()] instanceof EmptySlotComponent || chessboard[canMovePoint.getX()][canMovePoint.getY()].getChessColor() != getChessColor()) {
-                answer.add(chessboard[canMovePoint.getX()][canMovePoint.getY()].getChessboardPoint());
-            }
-        }
-        return answer;
+        return (Attacks.kingAttacks(square()) & 1L << square(destination)) != 0;
     }
 
     /**
@@ -136,7 +94,7 @@ public class KingChessComponent extends ChessComponent {
             g.drawOval(0, 0, getWidth(), getHeight());
         }
         if (isTrace()) {
-            g.setColor(Color.BLUE);
+            g.setColor(traceColor());
             g.drawOval(0, 0, getWidth(), getHeight());
             this.setTrace(false);
         }
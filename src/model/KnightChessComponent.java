@@ -1,15 +1,12 @@
 package model;
 
 import controller.ClickController;
-import view.ChessGameFrame;
 import view.ChessboardPoint;
 
 import javax.imageio.ImageIO;
 import java.awt.*;
 import java.io.File;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
 
 public class KnightChessComponent extends ChessComponent {
     /**
@@ -75,52 +72,7 @@ public class KnightChessComponent extends ChessComponent {
 
     @Override
     public boolean canMoveTo(ChessComponent[][] chessComponents, ChessboardPoint destination) {
-        ChessboardPoint source = getChessboardPoint();
-        if (Math.abs(source.getX() - destination.getX()) == 1 && Math.abs(source.getY() - destination.getY()) == 2) {
-            return true;
-        } else if (Math.abs(source.getX() - destination.getX()) == 2 && Math.abs(source.getY() - destination.getY()) == 1) {
-            return true;
-        } else
-            return false;
-    }
-
-    @Override
-    public List<ChessboardPoint> trace() {
-        int x = getChessboardPoint().getX();
-        int y = getChessboardPoint().getY();
-        ChessComponent[][] chessboard = ChessGameFrame.gameController.getChessboard().getChessComponents();
-        List<ChessboardPoint> canto = new ArrayList<ChessboardPoint>();
-        if (x + 2 <= 7 && y + 1 <= 7) {
-            canto.add(new ChessboardPoint(x + 2, y + 1));
-        }
-        if (x + 2 <= 7 && y - 1 >= 0) {
-            canto.add(new ChessboardPoint(x + 2, y - 1));
-        }
-        if (x - 2 >= 0 && y + 1 <= 7) {
-            canto.add(new ChessboardPoint(x - 2, y + 1));
-        }
-        if (x - 2 >= 0 && y - 1 >= 0) {
-            canto.add(new ChessboardPoint(x - 2, y - 1));
-        }
-        if (x + 1 <= 7 && y + 2 <= 7) {
-            canto.add(new ChessboardPoint(x + 1, y + 2));
-        }
-        if (x + 1 <= 7 && y - 2 >= 0) {
-            canto.add(new ChessboardPoint(x + 1, y - 2));
-        }
-        if (x - 1 >= 0 && y + 2 <= 7) {
-            canto.add(new ChessboardPoint(x - 1, y + 2));
-        }
-        if (x - 1 >= 0 && y - 2 >= 0) {
-            canto.add(new ChessboardPoint(x - 1, y - 2));
-        }
-        List<ChessboardPoint> answer = new ArrayList<>();
-        for (ChessboardPoint canMovePoint : canto) {
-            if (chessboard[canMovePoint.getX()][canMovePoint.getY()] instanceof EmptySlotComponent || chessboard[canMovePoint.getX()][canMovePoint.getY()].getChessColor() != getChessColor()) {
-                answer.add(chessboard[canMovePoint.getX()][canMovePoint.getY()].getChessboardPoint());
-            }
-        }
-        return answer;
+        return (Attacks.knightAttacks(square()) & 1L << square(destination)) != 0;
     }
 
     /**
@@ -139,7 +91,7 @@ public class KnightChessComponent extends ChessComponent {
             g.drawOval(0, 0, getWidth(), getHeight());
         }
         if (isTrace()) {
-            g.setColor(Color.BLUE);
+            g.setColor(traceColor());
             g.drawOval(0, 0, getWidth(), getHeight());
             this.setTrace(false);
         }
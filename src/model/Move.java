@@ -0,0 +1,81 @@
+package model;
+
+/**
+ * 这个类提供整数编码走法的工具方法，走法本身只是一个int，不创建对象。
+ * <br>
+ * 第0-5位是起点格子，第6-11位是终点格子，第12-14位是升变的棋子类型(0表示不升变)，格子编号见ChessPosition。
+ */
+public final class Move {
+    public static final int NONE = 0;
+
+    private Move() {
+    }
+
+    public static int of(int from, int to) {
+        return from | to << 6;
+    }
+
+    public static int of(int from, int to, int promotion) {
+        return from | to << 6 | promotion << 12;
+    }
+
+    public static int from(int move) {
+        return move & 63;
+    }
+
+    public static int to(int move) {
+        return move >>> 6 & 63;
+    }
+
+    /**
+     * @return 升变后的棋子类型(KNIGHT, BISHOP, ROOK, QUEEN)，不升变时为0
+     */
+    public static int promotion(int move) {
+        return move >>> 12 & 7;
+    }
+
+    /**
+     * 转换成Chessboard.step中记录的格式，如"6444_"或升变时的"1001b"
+     *
+     * @param color 走棋方，决定升变字符的大小写
+     */
+    public static String toStep(int move, int color) {
+        int from = from(move), to = to(move), promotion = promotion(move);
+        char suffix = promotion == 0 ? ChessPosition.EMPTY_CHAR : ChessPosition.pieceChar(ChessPosition.makePiece(color, promotion));
+        return String.format("%d%d%d%d%s", ChessPosition.rowOf(from), ChessPosition.colOf(from),
+                ChessPosition.rowOf(to), ChessPosition.colOf(to), suffix);
+    }
+
+    /**
+     * 解析Chessboard.step中记录的走法，兼容没有第5个字符的旧存档
+     *
+     * @return 编码后的走法
+     * @throws IllegalArgumentException 格式错误
+     */
+    public static int fromStep(String step) {
+        if (step.length() < 4) {
+            throw new IllegalArgumentException("step is too short: " + step);
+        }
+        int[] digits = new int[4];
+        for (int i = 0; i < 4; i++) {
+            digits[i] = step.charAt(i) - '0';
+            if (digits[i] < 0 || digits[i] > 7) {
+                throw new IllegalArgumentException("bad square in step: " + step);
+            }
+        }
+        int promotion = 0;
+        if (step.length() > 4) {
+            int piece = ChessPosition.pieceOf(step.charAt(4));
+            if (piece == -2) {
+                throw new IllegalArgumentException("bad promotion in step: " + step);
+            }
+            if (piece != ChessPosition.EMPTY) {
+                promotion = ChessPosition.typeOf(piece);
+                if (promotion == ChessPosition.PAWN || promotion == ChessPosition.KING) {
+                    throw new IllegalArgumentException("bad promotion in step: " + step);
+                }
+            }
+        }
+        return of(ChessPosition.square(digits[0], digits[1]), ChessPosition.square(digits[2], digits[3]), promotion);
+    }
+}
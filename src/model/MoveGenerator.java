@@ -0,0 +1,160 @@
+package model;
+
+/**
+ * 这个类根据ChessPosition生成走法，结果以整数编码(见Move)写入调用者提供的int[]，生成过程不创建任何对象。
+ * <br>
+ * 规则与各棋子的canMoveTo一致：兵从起始行可以走两格，到达底线升变为马、象、车或后；没有王车易位和吃过路兵。
+ */
+public final class MoveGenerator {
+    /**
+     * 任何局面的走法数都不会超过这个值，调用者按此大小准备缓冲区即可
+     */
+    public static final int MAX_MOVES = 256;
+    /**
+     * 单个棋子的走法数上限(后最多27种)
+     */
+    public static final int MAX_PIECE_MOVES = 27;
+
+    private static final long FIRST_ROW = 0xFFL;
+    private static final long LAST_ROW = 0xFFL << 56;
+
+    private MoveGenerator() {
+    }
+
+    /**
+     * 生成行棋方的全部走法
+     *
+     * @param moves 输出缓冲区，长度至少为MAX_MOVES
+     * @return 写入的走法数量
+     */
+    public static int generate(ChessPosition position, int[] moves) {
+        int count = 0;
+        long own = position.occupancy(position.getSideToMove());
+        while (own != 0) {
+            int from = Long.numberOfTrailingZeros(own);
+            own &= own - 1;
+            count = generateFrom(position, from, moves, count);
+        }
+        return count;
+    }
+
+    /**
+     * 生成行棋方的全部合法走法，即去掉走完后己方王仍被攻击的走法
+     *
+     * @param moves 输出缓冲区，长度至少为MAX_MOVES
+     * @return 写入的走法数量
+     */
+    public static int generateLegal(ChessPosition position, int[] moves) {
+        int count = generate(position, moves);
+        int legal = 0;
+        for (int i = 0; i < count; i++) {
+            if (position.isLegal(moves[i])) {
+                moves[legal++] = moves[i];
+            }
+        }
+        return legal;
+    }
+
+    /**
+     * 生成行棋方的吃子走法和升变为后的走法(均为伪合法)，供静态搜索使用
+     *
+     * @param moves 输出缓冲区，长度至少为MAX_MOVES
+     * @return 写入的走法数量
+     */
+    public static int generateCaptures(ChessPosition position, int[] moves) {
+        int count = 0;
+        int color = position.getSideToMove();
+        long occupancy = position.occupancy();
+        long enemy = position.occupancy(color ^ 1);
+        long own = position.occupancy(color);
+        while (own != 0) {
+            int from = Long.numberOfTrailingZeros(own);
+            own &= own - 1;
+            int type = ChessPosition.typeOf(position.pieceAt(from));
+            long targets;
+            if (type == ChessPosition.PAWN) {
+                long push = color == ChessPosition.WHITE ? (1L << from) >>> 8 : (1L << from) << 8;
+                targets = Attacks.pawnAttacks(color, from) & enemy | push & ~occupancy & (FIRST_ROW | LAST_ROW);
+            } else {
+                targets = Attacks.attacks(type, from, occupancy) & enemy;
+            }
+            while (targets != 0) {
+                int to = Long.numberOfTrailingZeros(targets);
+                targets &= targets - 1;
+                boolean promotion = type == ChessPosition.PAWN && ((1L << to) & (FIRST_ROW | LAST_ROW)) != 0;
+                moves[count++] = promotion ? Move.of(from, to, ChessPosition.QUEEN) : Move.of(from, to);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return 行棋方是否被将死：正被将军且没有合法走法
+     */
+    public static boolean isCheckmate(ChessPosition position, int[] moves) {
+        return position.isInCheck(position.getSideToMove()) && generateLegal(position, moves) == 0;
+    }
+
+    /**
+     * @return 行棋方是否无子可动：没有被将军但没有合法走法
+     */
+    public static boolean isStalemate(ChessPosition position, int[] moves) {
+        return !position.isInCheck(position.getSideToMove()) && generateLegal(position, moves) == 0;
+    }
+
+    /**
+     * 生成某一格上棋子的全部走法，不论该棋子是否属于行棋方
+     *
+     * @param moves 输出缓冲区
+     * @return 写入的走法数量，格子为空时为0
+     */
+    public static int generateFrom(ChessPosition position, int from, int[] moves) {
+        return generateFrom(position, from, moves, 0);
+    }
+
+    private static int generateFrom(ChessPosition position, int from, int[] moves, int count) {
+        int piece = position.pieceAt(from);
+        if (piece == ChessPosition.EMPTY) {
+            return count;
+        }
+        int color = ChessPosition.colorOf(piece);
+        int type = ChessPosition.typeOf(piece);
+        if (type == ChessPosition.PAWN) {
+            return pawnMoves(position, from, color, moves, count);
+        }
+        long targets = Attacks.attacks(type, from, position.occupancy()) & ~position.occupancy(color);
+        while (targets != 0) {
+            moves[count++] = Move.of(from, Long.numberOfTrailingZeros(targets));
+            targets &= targets - 1;
+        }
+        return count;
+    }
+
+    private static int pawnMoves(ChessPosition position, int from, int color, int[] moves, int count) {
+        long empty = ~position.occupancy();
+        long bit = 1L << from;
+        long pushes;
+        if (color == ChessPosition.WHITE) {
+            long one = bit >>> 8 & empty;
+            // 第6行的白兵可以再走一格到第4行
+            pushes = one | (one & 0xFFL << 40) >>> 8 & empty;
+        } else {
+            long one = bit << 8 & empty;
+            pushes = one | (one & 0xFFL << 16) << 8 & empty;
+        }
+        long targets = pushes | Attacks.pawnAttacks(color, from) & position.occupancy(color ^ 1);
+        while (targets != 0) {
+            int to = Long.numberOfTrailingZeros(targets);
+            targets &= targets - 1;
+            if (((1L << to) & (FIRST_ROW | LAST_ROW)) != 0) {
+                moves[count++] = Move.of(from, to, ChessPosition.QUEEN);
+                moves[count++] = Move.of(from, to, ChessPosition.ROOK);
+                moves[count++] = Move.of(from, to, ChessPosition.BISHOP);
+                moves[count++] = Move.of(from, to, ChessPosition.KNIGHT);
+            } else {
+                moves[count++] = Move.of(from, to);
+            }
+        }
+        return count;
+    }
+}
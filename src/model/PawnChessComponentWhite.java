@@ -1,15 +1,12 @@
 package model;
 
 import controller.ClickController;
-import view.ChessGameFrame;
 import view.ChessboardPoint;
 
 import javax.imageio.ImageIO;
 import java.awt.*;
 import java.io.File;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
 
 /**
  * 这个类表示国际象棋里面的车
@@ -114,58 +111,6 @@ public class PawnChessComponentWhite extends ChessComponent {
         return true;
     }
 
-    @Override
-    public List<ChessboardPoint> trace() {
-        List<ChessboardPoint> answer = new ArrayList<>();
-        int x = getChessboardPoint().getX();
-        int y = getChessboardPoint().getY();
-        ChessComponent[][] chessboard = ChessGameFrame.gameController.getChessboard().getChessComponents();
-        if (x == 6) {
-            if (chessboard[5][y] instanceof EmptySlotComponent) {
-                answer.add(new ChessboardPoint(5, y));
-                if (chessboard[4][y] instanceof EmptySlotComponent) {
-                    answer.add(new ChessboardPoint(4, y));
-                }
-            }
-            if (y - 1 >= 0) {
-                if (!(chessboard[5][y - 1] instanceof EmptySlotComponent)) {
-                    if (chessboard[5][y - 1].getChessColor() != getChessColor()) {
-                        answer.add(new ChessboardPoint(5, y - 1));
-                    }
-                }
-            }
-            if (y + 1 <= 7) {
-                if (!(chessboard[5][y + 1] instanceof EmptySlotComponent)) {
-                    if (chessboard[5][y + 1].getChessColor() != getChessColor()) {
-                        answer.add(new ChessboardPoint(5, y + 1));
-                    }
-                }
-            }
-        } else {
-            if (x - 1 >= 0) {
-                if (chessboard[x - 1][y] instanceof EmptySlotComponent) {
-                    answer.add(new ChessboardPoint(x - 1, y));
-                }
-                if (y - 1 >= 0) {
-                    if (!(chessboard[x - 1][y - 1] instanceof EmptySlotComponent)) {
-                        if (chessboard[x - 1][y - 1].getChessColor() != getChessColor()) {
-                            answer.add(new ChessboardPoint(x - 1, y - 1));
-                        }
-                    }
-                }
-                if (y + 1 <= 7) {
-                    if (!(chessboard[x - 1][y + 1] instanceof EmptySlotComponent)) {
-                        if (chessboard[x - 1][y + 1].getChessColor() != getChessColor()) {
-                            answer.add(new ChessboardPoint(x - 1, y + 1));
-                        }
-                    }
-                }
-            }
-        }
-
-        return answer;
-    }
-
     /**
      * 注意这个方法，每当窗体受到了形状的变化，或者是通知要进行绘图的时候，就会调用这个方法进行画图。
      *
@@ -182,7 +127,7 @@ public class PawnChessComponentWhite extends ChessComponent {
             g.drawOval(0, 0, getWidth(), getHeight());
         }
         if (isTrace()) {
-            g.setColor(Color.BLUE);
+            g.setColor(traceColor());
             g.drawOval(0, 0, getWidth(), getHeight());
             this.setTrace(false);
         }
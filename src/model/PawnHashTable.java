@@ -0,0 +1,91 @@
+package model;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 这个类缓存兵形结构的评估分(通路兵、孤兵、叠兵)，按ChessPosition的兵哈希值索引。
+ * <br>
+ * 兵的位置在搜索中很少变化，绝大多数节点都能直接命中，不必重新计算兵形。
+ * 与置换表一样每个条目占两个long：key ^ data 和 data，多个搜索线程可以同时读写而不加锁，
+ * 被交错写坏的条目校验失败，当作未命中处理。data的低32位是打包的中局、残局分，第32位标记条目有效。
+ */
+public class PawnHashTable {
+    private static final long VALID = 1L << 32;
+
+    private final long[] table;
+    private final int mask;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * @param entries 条目数，会向下取到2的幂
+     */
+    public PawnHashTable(int entries) {
+        int size = Integer.highestOneBit(Math.max(1, entries));
+        table = new long[size * 2];
+        mask = size - 1;
+    }
+
+    /**
+     * @return 命中时返回条目的data，用isHit判断是否命中、packedScore取出兵形分；未命中返回0
+     */
+    long probe(long pawnKey) {
+        long[] t = table;
+        int index = index(pawnKey);
+        long data = t[index + 1];
+        if ((t[index] ^ data) == pawnKey && (data & VALID) != 0) {
+            hits.increment();
+            return data;
+        }
+        misses.increment();
+        return 0L;
+    }
+
+    static boolean isHit(long data) {
+        return (data & VALID) != 0;
+    }
+
+    static int packedScore(long data) {
+        return (int) data;
+    }
+
+    void store(long pawnKey, int packedScore) {
+        long[] t = table;
+        int index = index(pawnKey);
+        long data = (packedScore & 0xFFFFFFFFL) | VALID;
+        t[index] = pawnKey ^ data;
+        t[index + 1] = data;
+    }
+
+    private int index(long pawnKey) {
+        return ((int) (pawnKey ^ pawnKey >>> 32) & mask) * 2;
+    }
+
+    public void clear() {
+        Arrays.fill(table, 0L);
+        resetStatistics();
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return 命中次数占探查次数的比例，没有探查过时为0
+     */
+    public double getHitRate() {
+        long h = hits.sum(), total = h + misses.sum();
+        return total == 0 ? 0 : (double) h / total;
+    }
+
+    public void resetStatistics() {
+        hits.reset();
+        misses.reset();
+    }
+}
@@ -1,15 +1,12 @@
 package model;
 
 import controller.ClickController;
-import view.ChessGameFrame;
 import view.ChessboardPoint;
 
 import javax.imageio.ImageIO;
 import java.awt.*;
 import java.io.File;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
 
 public class QueenChessComponent extends ChessComponent {
     /**
@@ -75,136 +72,8 @@ public class QueenChessComponent extends ChessComponent {
 
     @Override
     public boolean canMoveTo(ChessComponent[][] chessComponents, ChessboardPoint destination) {
-        ChessboardPoint source = getChessboardPoint();
-        if (source.getX() == destination.getX()) {
-            int row = source.getX();
-            for (int col = Math.min(source.getY(), destination.getY()) + 1;
-                 col < Math.max(source.getY(), destination.getY()); col++) {
-                if (!(chessComponents[row][col] instanceof EmptySlotComponent)) {
-                    return false;
-                }
-            }
-        } else if (source.getY() == destination.getY()) {
-            int col = source.getY();
-            for (int row = Math.min(source.getX(), destination.getX()) + 1;
-                 row < Math.max(source.getX(), destination.getX()); row++) {
-                if (!(chessComponents[row][col] instanceof EmptySlotComponent)) {
-                    return false;
-                }
-            }
-        } else if (source.getX() + source.getY() == destination.getX() + destination.getY()) {
-            int row1 = Math.max(source.getX(), destination.getX());
-            int row2 = Math.min(source.getX(), destination.getX());
-            int col1 = Math.max(source.getY(), destination.getY());
-            int col2 = Math.min(source.getY(), destination.getY());
-            for (int i = row1 - 1, j = col2 + 1; i > row2 && j < col1; i--, j++) {
-                if (!(chessComponents[i][j] instanceof EmptySlotComponent)) {
-                    return false;
-                }
-            }
-        } else if (source.getX() - source.getY() == destination.getX() - destination.getY()) {
-            int row1 = Math.max(source.getX(), destination.getX());
-            int row2 = Math.min(source.getX(), destination.getX());
-            int col1 = Math.max(source.getY(), destination.getY());
-            int col2 = Math.min(source.getY(), destination.getY());
-            for (int i = row2 + 1, j = col2 + 1; i < row1 && j < col1; i++, j++) {
-                if (!(chessComponents[i][j] instanceof EmptySlotComponent)) {
-                    return false;
-                }
-            }
-        } else { // Not on the same row or the same column.
-            return false;
-        }
-        return true;
-    }
-
-    @Override
-    public List<ChessboardPoint> trace() {
-        int x = getChessboardPoint().getX();
-        int y = getChessboardPoint().getY();
-        ChessComponent[][] chessboard = ChessGameFrame.gameController.getChessboard().getChessComponents();
-        List<ChessboardPoint> answer = new ArrayList<>();
-        for (int j = y + 1; j < 8; j++) {
-            if (chessboard[x][j] instanceof EmptySlotComponent) {
-                answer.add(new ChessboardPoint(x, j));
-            } else if (chessboard[x][j].getChessColor() == ChessColor.WHITE && getChessColor() == ChessColor.BLACK || chessboard[x][j].getChessColor() == ChessColor.BLACK && getChessColor() == ChessColor.WHITE) {
-                answer.add(new ChessboardPoint(x, j));
-                break;
-            } else {
-                break;
-            }
-        }
-        for (int i = x - 1; i >= 0; i--) {
-            if (chessboard[i][y] instanceof EmptySlotComponent) {
-                answer.add(new ChessboardPoint(i, y));
-            } else if (chessboard[i][y].getChessColor() == ChessColor.WHITE && getChessColor() == ChessColor.BLACK || chessboard[i][y].getChessColor() == ChessColor.BLACK && getChessColor() == ChessColor.WHITE) {
-                answer.add(new ChessboardPoint(i, y));
-                break;
-            } else {
-                break;
-            }
-        }
-        for (int j = y - 1; j >= 0; j--) {
-            if (chessboard[x][j] instanceof EmptySlotComponent) {
-                answer.add(new ChessboardPoint(x, j));
-            } else if (chessboard[x][j].getChessColor() == ChessColor.WHITE && getChessColor() == ChessColor.BLACK || chessboard[x][j].getChessColor() == ChessColor.BLACK && getChessColor() == ChessColor.WHITE) {
-                answer.add(new ChessboardPoint(x, j));
-                break;
-            } else {
-                break;
-            }
-        }
-        for (int i = x + 1; i < 8; i++) {
-            if (chessboard[i][y] instanceof EmptySlotComponent) {
-                answer.add(new ChessboardPoint(i, y));
-            } else if (chessboard[i][y].getChessColor() == ChessColor.WHITE && getChessColor() == ChessColor.BLACK || chessboard[i][y].getChessColor() == ChessColor.BLACK && getChessColor() == ChessColor.WHITE) {
-                answer.add(new ChessboardPoint(i, y));
-                break;
-            } else {
-                break;
-            }
-        }
-        for (int i = x + 1, j = y + 1; i < 8 && j < 8; i++, j++) {
-            if (chessboard[i][j] instanceof EmptySlotComponent) {
-                answer.add(new ChessboardPoint(i, j));
-            } else if (chessboard[i][j].getChessColor() == ChessColor.WHITE && getChessColor() == ChessColor.BLACK || chessboard[i][j].getChessColor() == ChessColor.BLACK && getChessColor() == ChessColor.WHITE) {
-                answer.add(new ChessboardPoint(i, j));
-                break;
-            } else {
-                break;
-            }
-        }
-        for (int i = x - 1, j = y + 1; i >= 0 && j < 8; i--, j++) {
-            if (chessboard[i][j] instanceof EmptySlotComponent) {
-                answer.add(new ChessboardPoint(i, j));
-            } else if (chessboard[i][j].getChessColor() == ChessColor.WHITE && getChessColor() == ChessColor.BLACK || chessboard[i][j].getChessColor() == ChessColor.BLACK && getChessColor() == ChessColor.WHITE) {
-                answer.add(new ChessboardPoint(i, j));
-                break;
-            } else {
-                break;
-            }
-        }
-        for (int i = x - 1, j = y - 1; i >= 0 && j >= 0; i--, j--) {
-            if (chessboard[i][j] instanceof EmptySlotComponent) {
-                answer.add(new ChessboardPoint(i, j));
-            } else if (chessboard[i][j].getChessColor() == ChessColor.WHITE && getChessColor() == ChessColor.BLACK || chessboard[i][j].getChessColor() == ChessColor.BLACK && getChessColor() == ChessColor.WHITE) {
-                answer.add(new ChessboardPoint(i, j));
-                break;
-            } else {
-                break;
-            }
-        }
-        for (int i = x + 1, j = y - 1; i < 8 && j >= 0; i++, j--) {
-            if (chessboard[i][j] instanceof EmptySlotComponent) {
-                answer.add(new ChessboardPoint(i, j));
-            } else if (chessboard[i][j].getChessColor() == ChessColor.WHITE && getChessColor() == ChessColor.BLACK || chessboard[i][j].getChessColor() == ChessColor.BLACK && getChessColor() == ChessColor.WHITE) {
-                answer.add(new ChessboardPoint(i, j));
-                break;
-            } else {
-                break;
-            }
-        }
-        return answer;
+        int from = square(), to = square(destination);
+        return (Attacks.queenAttacks(from, occupancy(chessComponents)) & 1L << to) != 0;
     }
 
     /**
@@ -223,7 +92,7 @@ public class QueenChessComponent extends ChessComponent {
             g.drawOval(0, 0, getWidth(), getHeight());
         }
         if (isTrace()) {
-            g.setColor(Color.BLUE);
+            g.setColor(traceColor());
             g.drawOval(0, 0, getWidth(), getHeight());
             this.setTrace(false);
         }
@@ -0,0 +1,126 @@
+package model;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * 这个类逐行读取文本存档，一边校验一边在ChessPosition上重放走法，文件只读一遍，内存只与步数成正比。
+ * <br>
+ * 校验与载入按钮原来的错误代码一致：101棋盘行不是8个字符，102棋盘中有未知的棋子字符，103行棋方不是w或b；
+ * 另外105表示某一行走法格式错误或在当时的局面上走不出来。出错时同时给出行号(从1开始)。
+ * <br>
+ * 与原来的载入方式一样，棋盘的8行只做校验，局面以从初始局面重放走法的结果为准，行棋方以第9行为准。
+ */
+public final class SaveFileReader {
+    public static final int BAD_LINE_LENGTH = 101;
+    public static final int BAD_PIECE = 102;
+    public static final int BAD_SIDE = 103;
+    public static final int BAD_MOVE = 105;
+
+    /**
+     * 存档格式错误，带有错误代码和出错的行号
+     */
+    public static class FormatException extends IOException {
+        private static final long serialVersionUID = 1L;
+        private final int code;
+        private final int lineNumber;
+
+        public FormatException(int code, int lineNumber, String message) {
+            super("line " + lineNumber + ": " + message);
+            this.code = code;
+            this.lineNumber = lineNumber;
+        }
+
+        public int getCode() {
+            return code;
+        }
+
+        public int getLineNumber() {
+            return lineNumber;
+        }
+    }
+
+    private SaveFileReader() {
+    }
+
+    public static GameRecord read(Path path) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            return read(reader);
+        }
+    }
+
+    /**
+     * @return 重放后的最终局面(带悔棋记录)和全部走法
+     * @throws FormatException 存档格式错误
+     */
+    public static GameRecord read(Reader in) throws IOException {
+        BufferedReader reader = in instanceof BufferedReader ? (BufferedReader) in : new BufferedReader(in);
+        int lineNumber = 0;
+        String line;
+        for (int i = 0; i < 8; i++) {
+            line = reader.readLine();
+            lineNumber++;
+            if (line == null || line.length() != 8) {
+                throw new FormatException(BAD_LINE_LENGTH, lineNumber, "board line is not 8 characters");
+            }
+            for (int j = 0; j < 8; j++) {
+                if (ChessPosition.pieceOf(line.charAt(j)) == -2) {
+                    throw new FormatException(BAD_PIECE, lineNumber, "unknown piece '" + line.charAt(j) + "'");
+                }
+            }
+        }
+        line = reader.readLine();
+        lineNumber++;
+        if (line == null || !line.equals("w") && !line.equals("b")) {
+            throw new FormatException(BAD_SIDE, lineNumber, "side line must be 'w' or 'b'");
+        }
+        int side = line.equals("w") ? ChessPosition.WHITE : ChessPosition.BLACK;
+
+        ChessPosition position = ChessPosition.initialPosition();
+        int[] moves = new int[64];
+        int moveCount = 0;
+        int[] buffer = new int[MoveGenerator.MAX_PIECE_MOVES];
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            if (line.isEmpty()) {
+                continue;
+            }
+            int move;
+            try {
+                move = Move.fromStep(line);
+            } catch (IllegalArgumentException e) {
+                throw new FormatException(BAD_MOVE, lineNumber, e.getMessage());
+            }
+            if (!isPossible(position, move, buffer)) {
+                throw new FormatException(BAD_MOVE, lineNumber, "impossible move " + line);
+            }
+            if (moveCount == moves.length) {
+                moves = Arrays.copyOf(moves, moveCount * 2);
+            }
+            moves[moveCount++] = move;
+            position.makeMove(move);
+        }
+        // 倒计时结束时会不走棋直接换手，行棋方以存档为准
+        position.setSideToMove(side);
+        return new GameRecord(position, Arrays.copyOf(moves, moveCount));
+    }
+
+    /**
+     * 界面允许走伪合法的走法，这里也只检查起点上的棋子能否走到终点；没有写升变字符的兵按原样走到底线
+     */
+    private static boolean isPossible(ChessPosition position, int move, int[] buffer) {
+        int count = MoveGenerator.generateFrom(position, Move.from(move), buffer);
+        for (int i = 0; i < count; i++) {
+            if (Move.to(buffer[i]) == Move.to(move)
+                    && (Move.promotion(buffer[i]) == Move.promotion(move) || Move.promotion(move) == 0)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
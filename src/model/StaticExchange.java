@@ -0,0 +1,82 @@
+package model;
+
+/**
+ * 这个类做静态交换评估(SEE)：不实际走棋，计算双方在某一格上轮流用最便宜的棋子吃子、直到一方不再愿意吃时的子力得失。
+ * <br>
+ * 攻击者由ChessPosition.attackersTo从目标格反查得到，每吃掉一次就从占用中去掉吃子的棋子，
+ * 重新查询滑子，这样排在后面的车、象、后(x光攻击)也会加入交换。
+ */
+public final class StaticExchange {
+    /**
+     * 交换中使用的子力价值，王的价值足够大，保证不会被当作可以换掉的棋子
+     */
+    private static final int[] VALUES = {100, 320, 330, 500, 900, 20000};
+    /**
+     * evaluate所需缓冲区的长度，即一格上最多计算的吃子次数
+     */
+    public static final int BUFFER_SIZE = 32;
+
+    private StaticExchange() {
+    }
+
+    public static int value(int type) {
+        return VALUES[type];
+    }
+
+    /**
+     * @param move 当前局面下行棋方的走法(吃子或不吃子)
+     * @param gain 调用者复用的缓冲区，长度至少为BUFFER_SIZE，静态搜索中每个吃子都要调用，不在这里分配
+     * @return 走完这一步并经过双方最优的连续吃子后，走棋方的子力得失；为负表示这一步会丢子
+     */
+    public static int evaluate(ChessPosition position, int move, int[] gain) {
+        int from = Move.from(move), to = Move.to(move), promotion = Move.promotion(move);
+        int captured = position.pieceAt(to);
+        int color = ChessPosition.colorOf(position.pieceAt(from));
+        gain[0] = captured == ChessPosition.EMPTY ? 0 : VALUES[ChessPosition.typeOf(captured)];
+        // 下一次被吃掉的是刚走到目标格的棋子
+        int onSquare = ChessPosition.typeOf(position.pieceAt(from));
+        if (promotion != 0) {
+            gain[0] += VALUES[promotion] - VALUES[ChessPosition.PAWN];
+            onSquare = promotion;
+        }
+        long occupancy = position.occupancy() & ~(1L << from) | 1L << to;
+        long attackers = position.attackersTo(to, occupancy) & occupancy & ~(1L << to);
+        long bishops = position.pieces(ChessPosition.WHITE, ChessPosition.BISHOP) | position.pieces(ChessPosition.BLACK, ChessPosition.BISHOP)
+                | position.pieces(ChessPosition.WHITE, ChessPosition.QUEEN) | position.pieces(ChessPosition.BLACK, ChessPosition.QUEEN);
+        long rooks = position.pieces(ChessPosition.WHITE, ChessPosition.ROOK) | position.pieces(ChessPosition.BLACK, ChessPosition.ROOK)
+                | position.pieces(ChessPosition.WHITE, ChessPosition.QUEEN) | position.pieces(ChessPosition.BLACK, ChessPosition.QUEEN);
+        int side = color ^ 1;
+        int depth = 0;
+        while (depth + 1 < BUFFER_SIZE) {
+            long own = attackers & position.occupancy(side);
+            if (own == 0) {
+                break;
+            }
+            int type = ChessPosition.PAWN;
+            long bits = 0;
+            for (; type <= ChessPosition.KING; type++) {
+                bits = own & position.pieces(side, type);
+                if (bits != 0) {
+                    break;
+                }
+            }
+            // 王只能在对方没有其他攻击者时吃子
+            if (type == ChessPosition.KING && (attackers & position.occupancy(side ^ 1)) != 0) {
+                break;
+            }
+            depth++;
+            gain[depth] = VALUES[onSquare] - gain[depth - 1];
+            occupancy &= ~(bits & -bits);
+            attackers |= Attacks.bishopAttacks(to, occupancy) & bishops | Attacks.rookAttacks(to, occupancy) & rooks;
+            attackers &= occupancy;
+            onSquare = type;
+            side ^= 1;
+        }
+        // 从后往前，每一方都可以选择不继续吃
+        while (depth > 0) {
+            gain[depth - 1] = -Math.max(-gain[depth - 1], gain[depth]);
+            depth--;
+        }
+        return gain[0];
+    }
+}
@@ -0,0 +1,36 @@
+package model;
+
+/**
+ * 这个类保存Zobrist哈希用的随机数表：每种棋子在每个格子上一个随机数，再加一个表示黑方行棋的随机数。
+ * <br>
+ * 随机数由固定种子的SplitMix64生成，因此同一局面在每次运行、每台机器上的哈希值都相同，可以写进文件。
+ */
+public final class Zobrist {
+    private static final long[][] PIECE_SQUARE = new long[ChessPosition.PIECE_COUNT][64];
+    public static final long BLACK_TO_MOVE;
+
+    static {
+        long seed = 0x5EED_C0FF_EE12_3456L;
+        for (int piece = 0; piece < ChessPosition.PIECE_COUNT; piece++) {
+            for (int square = 0; square < 64; square++) {
+                seed += 0x9E3779B97F4A7C15L;
+                PIECE_SQUARE[piece][square] = mix(seed);
+            }
+        }
+        seed += 0x9E3779B97F4A7C15L;
+        BLACK_TO_MOVE = mix(seed);
+    }
+
+    private Zobrist() {
+    }
+
+    public static long piece(int piece, int square) {
+        return PIECE_SQUARE[piece][square];
+    }
+
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -5,11 +5,10 @@ import model.*;
 
 import javax.swing.*;
 import java.awt.*;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
 import java.io.File;
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Paths;
-import java.util.List;
 import java.util.Random;
 import java.util.Timer;
 
@@ -23,6 +22,7 @@ public class ChessGameFrame extends JFrame {
     public final int CHESSBOARD_SIZE;
     public static GameController gameController;
     private JLabel statusLabel;
+    private JLabel hintLabel;
     public String BGMState = "OFF";
     private String path;
     TimerTask timerTask = new TimerTask();
@@ -50,10 +50,13 @@ public class ChessGameFrame extends JFrame {
         addLabel2();
         addChessboard();
         addLabel();
+        addHintLabel();
 //        addHelloButton();
         addReview();
         addSwitch();
         addReStartButton();
+        addComputerButton();
+        addHintButton();
         addLoadButton();
         addPlayBGMButton();
         addUndo();
@@ -62,6 +65,14 @@ public class ChessGameFrame extends JFrame {
         addChessBoardPicture();
         addPicture();
 
+        gameController.resumeAutosave();
+        addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosing(WindowEvent e) {
+                gameController.closeAutosave();
+            }
+        });
+
     }
 
     public void Switch(){
@@ -107,6 +118,20 @@ public class ChessGameFrame extends JFrame {
     }
 
 
+    private void addHintLabel() {
+        hintLabel = new JLabel("");
+        hintLabel.setLocation(HEIGTH / 10, HEIGTH / 10 + CHESSBOARD_SIZE + 5);
+        hintLabel.setSize(CHESSBOARD_SIZE, 30);
+        hintLabel.setFont(new Font("Rockwell", Font.BOLD, 18));
+        hintLabel.setForeground(Color.CYAN);
+        add(hintLabel);
+    }
+
+    public void showHint(String text) {
+        hintLabel.setText(text);
+        hintLabel.repaint();
+    }
+
     private void addTimer() {
         timerTask.timeLabel.setLocation(HEIGTH, HEIGTH / 15 - 20);
         timerTask.timeLabel.setSize(WIDTH / 15, HEIGTH / 15);
@@ -149,6 +174,40 @@ public class ChessGameFrame extends JFrame {
         });
     }
 
+    private void addComputerButton() {
+        JButton button = new JButton("VS AI: OFF");
+        button.setLocation(500, 10);
+        button.setSize(200, 60);
+        button.setFont(new Font("Rockwell", Font.ITALIC, 25));
+        button.setForeground(Color.PINK);
+        add(button);
+
+        button.addActionListener(e -> {
+            if (gameController.getComputerColor() == ChessColor.NONE) {
+                gameController.setComputerColor(ChessColor.BLACK);
+                button.setText("VS AI: ON");
+            } else {
+                gameController.setComputerColor(ChessColor.NONE);
+                button.setText("VS AI: OFF");
+            }
+            System.out.printf("Computer plays: %s\n", gameController.getComputerColor().getName());
+        });
+    }
+
+    private void addHintButton() {
+        JButton button = new JButton("HINT");
+        button.setLocation(720, 10);
+        button.setSize(200, 60);
+        button.setFont(new Font("Rockwell", Font.ITALIC, 30));
+        button.setForeground(Color.PINK);
+        add(button);
+
+        button.addActionListener(e -> {
+            System.out.println("Hint");
+            gameController.showHint();
+        });
+    }
+
     private void addLoadButton() {
         JButton button = new JButton("LOAD");
         button.setLocation(HEIGTH, HEIGTH / 10 + 205);
@@ -170,29 +229,20 @@ public class ChessGameFrame extends JFrame {
                 String[] part = path.split("\\.");
                 if (part[part.length - 1].equals("txt")) {
                     try {
-                        List<String> chessData = Files.readAllLines(Paths.get(path));
-                        for (int i = 0; i < 8; i++) {
-                            if (chessData.get(i).length() != 8) {
-                                JOptionPane.showConfirmDialog(null, "错误代码:101", "提示", JOptionPane.DEFAULT_OPTION);
-                                return;
-                            } else {
-                                for (int j = 0; j < 8; j++) {
-                                    char chess = chessData.get(i).charAt(j);
-                                    if (chess != 'B' && chess != 'N' && chess != 'P' && chess != 'R' && chess != 'Q' && chess != 'K' && chess != '_' && chess != 'b' && chess != 'n' && chess != 'p' && chess != 'r' && chess != 'q' && chess != 'k') {
-                                        JOptionPane.showConfirmDialog(null, "错误代码:102", "提示", JOptionPane.DEFAULT_OPTION);
-                                        return;
-                                    }
-                                }
-                            }
-                        }
-                        if (!chessData.get(8).equals("w") && !chessData.get(8).equals("b")) {
-                            JOptionPane.showConfirmDialog(null, "错误代码:103", "提示", JOptionPane.DEFAULT_OPTION);
-                            return;
-                        }
+                        gameController.loadGameFromFile(path);
+                    } catch (SaveFileReader.FormatException ex) {
+                        System.out.printf("Load failed: %s\n", ex.getMessage());
+                        JOptionPane.showConfirmDialog(null, "错误代码:" + ex.getCode() + " (第" + ex.getLineNumber() + "行)", "提示", JOptionPane.DEFAULT_OPTION);
                     } catch (IOException ex) {
                         ex.printStackTrace();
                     }
-                    gameController.loadGameFromFile(path);
+                } else if (part[part.length - 1].equals(GameRecord.EXTENSION)) {
+                    try {
+                        gameController.loadRecordFromFile(path);
+                    } catch (IOException ex) {
+                        System.out.printf("Load failed: %s\n", ex.getMessage());
+                        JOptionPane.showConfirmDialog(null, "错误代码:104", "提示", JOptionPane.DEFAULT_OPTION);
+                    }
                 } else {
                     JOptionPane.showConfirmDialog(null, "错误代码:104", "提示", JOptionPane.DEFAULT_OPTION);
                 }
@@ -231,9 +281,9 @@ public class ChessGameFrame extends JFrame {
         add(button);
 
         button.addActionListener(e -> {
-            gameController.getChessboard().initChessboard();
-            gameController.getChessboard().setCurrentColor(ChessColor.WHITE);
-            gameController.getChessboard().repaint();
+            gameController.getChessboard().completePromotion();
+            gameController.ensureHistory();
+            gameController.getChessboard().loadPosition(ChessPosition.initialPosition());
             timeTask timeTask=new timeTask();
             timeTask.timer1.schedule(timeTask,0,500);
             if(statusLabel.getText().equals("White")){
@@ -317,6 +367,14 @@ public class ChessGameFrame extends JFrame {
         public void resetTime() {
             time = 31;
         }
+
+        /**
+         * @return 当前行棋方剩余的秒数
+         */
+        public int getTime() {
+            return time;
+        }
+
         @Override
         public void run() {
             time--;
@@ -342,6 +400,9 @@ public class ChessGameFrame extends JFrame {
 
     }
 
+    /**
+     * 复盘：每隔一段时间在局面上走一步，再同步界面；走到最后一步时把行棋方恢复为复盘前的一方
+     */
     public static class timeTask extends java.util.TimerTask{
         int time1=-4;
         Timer timer1=new Timer();
@@ -349,55 +410,24 @@ public class ChessGameFrame extends JFrame {
         @Override
         public void run() {
             time1++;
-            if(time1>=gameController.getChessboard().step.size()){
+            Chessboard chessboard = gameController.getChessboard();
+            if(time1>=chessboard.step.size()){
                 timer1.cancel();
             }else if(time1>=0){
-               // gameController.getChessboard().move(gameController.getChessboard().getChessComponents()[gameController.getChessboard().step.get(time1).charAt(0)-48][gameController.getChessboard().step.get(time1).charAt(1)-48],gameController.getChessboard().getChessComponents()[gameController.getChessboard().step.get(time1).charAt(2)-48][gameController.getChessboard().step.get(time1).charAt(3)-48]);
-                ChessComponent chess1 = gameController.getChessboard().getChessComponents()[gameController.getChessboard().step.get(time1).charAt(0) - 48][gameController.getChessboard().step.get(time1).charAt(1) - 48];
-                ChessComponent chess2 = gameController.getChessboard().getChessComponents()[gameController.getChessboard().step.get(time1).charAt(2) - 48][gameController.getChessboard().step.get(time1).charAt(3) - 48];
-                if (gameController.getChessboard().step.get(time1).charAt(4) == 'B') {
-                    gameController.getChessboard().remove(chess1);
-                    chess1 = new BishopChessComponent(chess1.getChessboardPoint(), chess1.getLocation(), ChessColor.BLACK, gameController.getChessboard().getClickController(), 76);
-                    gameController.getChessboard().add(chess1);
-                }
-                if (gameController.getChessboard().step.get(time1).charAt(4) == 'b') {
-                    gameController.getChessboard().remove(chess1);
-                    chess1 = new BishopChessComponent(chess1.getChessboardPoint(), chess1.getLocation(), ChessColor.WHITE, gameController.getChessboard().getClickController(), 76);
-                    gameController.getChessboard().add(chess1);
-                }
-                if (gameController.getChessboard().step.get(time1).charAt(4) == 'N') {
-                    gameController.getChessboard().remove(chess1);
-                    chess1 = new KnightChessComponent(chess1.getChessboardPoint(), chess1.getLocation(), ChessColor.BLACK, gameController.getChessboard().getClickController(), 76);
-                    gameController.getChessboard().add(chess1);
-                }
-                if (gameController.getChessboard().step.get(time1).charAt(4) == 'n') {
-                    gameController.getChessboard().remove(chess1);
-                    chess1 = new KnightChessComponent(chess1.getChessboardPoint(), chess1.getLocation(), ChessColor.WHITE, gameController.getChessboard().getClickController(), 76);
-                    gameController.getChessboard().add(chess1);
-                }
-                if (gameController.getChessboard().step.get(time1).charAt(4) == 'Q') {
-                    gameController.getChessboard().remove(chess1);
-                    chess1 = new QueenChessComponent(chess1.getChessboardPoint(), chess1.getLocation(), ChessColor.BLACK, gameController.getChessboard().getClickController(), 76);
-                    gameController.getChessboard().add(chess1);
-                }
-                if (gameController.getChessboard().step.get(time1).charAt(4) == 'q') {
-                    gameController.getChessboard().remove(chess1);
-                    chess1 = new QueenChessComponent(chess1.getChessboardPoint(), chess1.getLocation(), ChessColor.WHITE, gameController.getChessboard().getClickController(), 76);
-                    gameController.getChessboard().add(chess1);
-                }
-                if (gameController.getChessboard().step.get(time1).charAt(4) == 'R') {
-                    gameController.getChessboard().remove(chess1);
-                    chess1 = new RookChessComponent(chess1.getChessboardPoint(), chess1.getLocation(), ChessColor.BLACK, gameController.getChessboard().getClickController(), 76);
-                    gameController.getChessboard().add(chess1);
-                }
-                if (gameController.getChessboard().step.get(time1).charAt(4) == 'r') {
-                    gameController.getChessboard().remove(chess1);
-                    chess1 = new RookChessComponent(chess1.getChessboardPoint(), chess1.getLocation(), ChessColor.WHITE, gameController.getChessboard().getClickController(), 76);
-                    gameController.getChessboard().add(chess1);
-                }
-                chess1.repaint();
-                chess2.repaint();
-                gameController.getChessboard().move(chess1, chess2);
+                String step = chessboard.step.get(time1);
+                boolean last = time1 == chessboard.step.size() - 1;
+                SwingUtilities.invokeLater(() -> {
+                    try {
+                        chessboard.applyStep(step);
+                    } catch (IllegalArgumentException e) {
+                        System.out.printf("Review stopped: %s\n", e.getMessage());
+                        timer1.cancel();
+                    }
+                    if (last) {
+                        chessboard.setCurrentColor(chessboard.getCurrentColor());
+                    }
+                    chessboard.syncBoard();
+                });
             }
         }
     }
@@ -35,6 +35,15 @@ public class Chessboard extends JComponent {
     private final int CHESS_SIZE;
     private GameController gameController;
     public ArrayList<String> step=new ArrayList<>();
+    /**
+     * 与chessComponents保持同步的局面，规则判断和走法生成都基于它，不再遍历Swing组件
+     */
+    private final ChessPosition position = new ChessPosition();
+    /**
+     * 正在打开的升变对话框和其中的"Queen"按钮；对话框打开时不交出行棋权，选择后才轮到对方
+     */
+    private JFrame promotionFrame;
+    private JButton promotionQueen;
 
     public void setGameController(GameController gameController) {
         this.gameController = gameController;
@@ -62,6 +71,18 @@ public class Chessboard extends JComponent {
 
     public void setCurrentColor(ChessColor currentColor) {
         this.currentColor = currentColor;
+        position.setSideToMove(ChessPosition.colorIndex(currentColor));
+    }
+
+    public ChessPosition getPosition() {
+        return position;
+    }
+
+    /**
+     * @return 当前局面的Zobrist哈希值，可以O(1)判断两个局面是否相同
+     */
+    public long getPositionKey() {
+        return position.getKey();
     }
 
     public void putChessOnBoard(ChessComponent chessComponent) {
@@ -74,6 +95,13 @@ public class Chessboard extends JComponent {
     }
 
     public void swapChessComponents(ChessComponent chess1, ChessComponent chess2) {
+        swapChessComponents(chess1, chess2, 0);
+    }
+
+    /**
+     * @param promotion 兵到达底线时直接升变成的棋子类型(见ChessPosition)；为0时弹出对话框让玩家选择
+     */
+    public void swapChessComponents(ChessComponent chess1, ChessComponent chess2, int promotion) {
         int win = 0;
         if(chess2 instanceof KingChessComponent){
             if(chess2.getChessColor()==ChessColor.BLACK){
@@ -82,6 +110,9 @@ public class Chessboard extends JComponent {
                 win=2;
             }
         }
+        // 载入二进制存档后还没重放的走法要在这一步之前补上，否则之后的重放会丢掉这一步
+        gameController.ensureHistory();
+        position.makeMove(Move.of(squareOf(chess1), squareOf(chess2)));
         // Note that chess1 has higher priority, 'destroys' chess2 if exists.
         if (!(chess2 instanceof EmptySlotComponent)) {
             remove(chess2);
@@ -94,10 +125,19 @@ public class Chessboard extends JComponent {
         chessComponents[row2][col2] = chess2;
 //        chess1.repaint();
         chess2.repaint();
-        if(chess1 instanceof PawnChessComponentBlack){
+        String suffix = "_";
+        if (promotion != 0 && (row1 == 0 || row1 == 7) && (chess1 instanceof PawnChessComponentBlack || chess1 instanceof PawnChessComponentWhite)) {
+            int piece = ChessPosition.makePiece(ChessPosition.colorIndex(chess1.getChessColor()), promotion);
+            remove(chess1);
+            putChessOnBoard(createChess(piece, row1, col1));
+            chessComponents[row1][col1].repaint();
+            promoteLastMove(promotion);
+            suffix = String.valueOf(ChessPosition.pieceChar(piece));
+        } else if(chess1 instanceof PawnChessComponentBlack){
             if(chess1.getChessboardPoint().getX()==7){
                 remove(chess1);
                 JFrame jFrame=new JFrame("升级！");
+                promotionFrame = jFrame;
                 jFrame.setSize(500,500);
                 jFrame.setLocationRelativeTo(null);
                 jFrame.setVisible(true);
@@ -113,9 +153,10 @@ public class Chessboard extends JComponent {
                     //remove(chess1);
                     add(chess3);
                     chessComponents[chess3.getChessboardPoint().getX()][chess3.getChessboardPoint().getY()]=chess3;
+                    promoteLastMove(ChessPosition.BISHOP);
                     chess3.repaint();
                     step.set(step.size()-1,String.format("%d%d%d%d%s",row2,col2,row1,col1,"B"));
-                    jFrame.dispose();
+                    finishPromotion(jFrame);
                 });
 
                 JButton knight=new JButton("Knight");
@@ -128,9 +169,10 @@ public class Chessboard extends JComponent {
                    // remove(chess1);
                     add(chess4);
                     chessComponents[chess4.getChessboardPoint().getX()][chess4.getChessboardPoint().getY()]=chess4;
+                    promoteLastMove(ChessPosition.KNIGHT);
                     chess4.repaint();
                     step.set(step.size()-1,String.format("%d%d%d%d%s",row2,col2,row1,col1,"N"));
-                    jFrame.dispose();
+                    finishPromotion(jFrame);
                 });
 
                 JButton Queen=new JButton("Queen");
@@ -138,14 +180,16 @@ public class Chessboard extends JComponent {
                 Queen.setSize(200,100);
                 Queen.setFont(new Font("Rockwell",Font.ITALIC, 15));
                 jFrame.add(Queen);
+                promotionQueen = Queen;
                 ChessComponent chess5=new QueenChessComponent(chess1.getChessboardPoint(),chess1.getLocation(),ChessColor.BLACK,clickController,CHESS_SIZE);
                 Queen.addActionListener(e -> {
                     //remove(chess1);
                     add(chess5);
                     chessComponents[chess5.getChessboardPoint().getX()][chess5.getChessboardPoint().getY()]=chess5;
+                    promoteLastMove(ChessPosition.QUEEN);
                     chess5.repaint();
                     step.set(step.size()-1,String.format("%d%d%d%d%s",row2,col2,row1,col1,"Q"));
-                    jFrame.dispose();
+                    finishPromotion(jFrame);
                 });
 
                 JButton Rook=new JButton("Rook");
@@ -158,17 +202,18 @@ public class Chessboard extends JComponent {
                     //remove(chess1);
                     add(chess6);
                     chessComponents[chess6.getChessboardPoint().getX()][chess6.getChessboardPoint().getY()]=chess6;
+                    promoteLastMove(ChessPosition.ROOK);
                     chess6.repaint();
                     step.set(step.size()-1,String.format("%d%d%d%d%s",row2,col2,row1,col1,"R"));
-                    jFrame.dispose();
+                    finishPromotion(jFrame);
                 });
                 jFrame.setDefaultCloseOperation(WindowConstants.DO_NOTHING_ON_CLOSE);
             }
-        }
-        if(chess1 instanceof PawnChessComponentWhite){
+        } else if(chess1 instanceof PawnChessComponentWhite){
             if(chess1.getChessboardPoint().getX()==0){
                 remove(chess1);
                 JFrame jFrame=new JFrame();
+                promotionFrame = jFrame;
                 jFrame.setSize(500,500);
                 jFrame.setLocationRelativeTo(null);
                 jFrame.setVisible(true);
@@ -184,9 +229,10 @@ public class Chessboard extends JComponent {
                     //remove(chess1);
                     add(chess3);
                     chessComponents[chess3.getChessboardPoint().getX()][chess3.getChessboardPoint().getY()]=chess3;
+                    promoteLastMove(ChessPosition.BISHOP);
                     chess3.repaint();
                     step.set(step.size()-1,String.format("%d%d%d%d%s",row2,col2,row1,col1,"b"));
-                    jFrame.dispose();
+                    finishPromotion(jFrame);
                 });
 
                 JButton knight=new JButton("Knight");
@@ -199,9 +245,10 @@ public class Chessboard extends JComponent {
                    // remove(chess1);
                     add(chess4);
                     chessComponents[chess4.getChessboardPoint().getX()][chess4.getChessboardPoint().getY()]=chess4;
+                    promoteLastMove(ChessPosition.KNIGHT);
                     chess4.repaint();
                     step.set(step.size()-1,String.format("%d%d%d%d%s",row2,col2,row1,col1,"n"));
-                    jFrame.dispose();
+                    finishPromotion(jFrame);
                 });
 
                 JButton Queen=new JButton("Queen");
@@ -209,14 +256,16 @@ public class Chessboard extends JComponent {
                 Queen.setSize(200,100);
                 Queen.setFont(new Font("Rockwell",Font.ITALIC, 15));
                 jFrame.add(Queen);
+                promotionQueen = Queen;
                 ChessComponent chess5=new QueenChessComponent(chess1.getChessboardPoint(),chess1.getLocation(),ChessColor.WHITE,clickController,CHESS_SIZE);
                 Queen.addActionListener(e -> {
                     //remove(chess1);
                     add(chess5);
                     chessComponents[chess5.getChessboardPoint().getX()][chess5.getChessboardPoint().getY()]=chess5;
+                    promoteLastMove(ChessPosition.QUEEN);
                     chess5.repaint();
                     step.set(step.size()-1,String.format("%d%d%d%d%s",row2,col2,row1,col1,"q"));
-                    jFrame.dispose();
+                    finishPromotion(jFrame);
                 });
 
                 JButton Rook=new JButton("Rook");
@@ -229,10 +278,12 @@ public class Chessboard extends JComponent {
                    // remove(chess1);
                     add(chess6);
                     chessComponents[chess6.getChessboardPoint().getX()][chess6.getChessboardPoint().getY()]=chess6;
+                    promoteLastMove(ChessPosition.ROOK);
                     chess6.repaint();
                     step.set(step.size()-1,String.format("%d%d%d%d%s",row2,col2,row1,col1,"r"));
-                    jFrame.dispose();
+                    finishPromotion(jFrame);
                 });
+                jFrame.setDefaultCloseOperation(WindowConstants.DO_NOTHING_ON_CLOSE);
             }
         }
         if(win==1){
@@ -240,24 +291,89 @@ public class Chessboard extends JComponent {
         }else if(win==2){
             JOptionPane.showConfirmDialog(null, "黑方获胜", "提示", JOptionPane.DEFAULT_OPTION);
         }
-        step.add(String.format("%d%d%d%d%s",row2,col2,row1,col1,"_"));
+        step.add(String.format("%d%d%d%d%s",row2,col2,row1,col1,suffix));
         gameController.chessGameFrame.getTimerTask().resetTime();
     }
 
-    public void move(ChessComponent chess1, ChessComponent chess2) {
-        // Note that chess1 has higher priority, 'destroys' chess2 if exists.
-        if (!(chess2 instanceof EmptySlotComponent)) {
-            remove(chess2);
-            add(chess2 = new EmptySlotComponent(chess2.getChessboardPoint(), chess2.getLocation(), clickController, CHESS_SIZE));
+    /**
+     * @return 升变对话框是否还开着；开着时对方(包括电脑)不能行棋
+     */
+    public boolean isPromoting() {
+        return promotionFrame != null;
+    }
+
+    /**
+     * 升变对话框还开着时直接按升变为后处理，供悔棋、载入、重新开始等改动局面的操作先调用
+     */
+    public void completePromotion() {
+        if (promotionQueen != null) {
+            promotionQueen.doClick(0);
         }
-        chess1.swapLocation(chess2);
-        int row1 = chess1.getChessboardPoint().getX(), col1 = chess1.getChessboardPoint().getY();
-        chessComponents[row1][col1] = chess1;
-        int row2 = chess2.getChessboardPoint().getX(), col2 = chess2.getChessboardPoint().getY();
-        chessComponents[row2][col2] = chess2;
+    }
 
-        chess1.repaint();
-        chess2.repaint();
+    /**
+     * 升变选择完成：关闭对话框，再让对方开始行棋
+     */
+    private void finishPromotion(JFrame jFrame) {
+        jFrame.dispose();
+        promotionFrame = null;
+        promotionQueen = null;
+        gameController.onTurnChanged();
+    }
+
+    /**
+     * 把最近一步兵走到底线的走法改记为升变，供升变对话框选择后调用
+     *
+     * @param type 升变后的棋子类型
+     */
+    private void promoteLastMove(int type) {
+        int move = position.lastMove();
+        int side = position.getSideToMove();
+        position.unmakeMove();
+        position.makeMove(Move.of(Move.from(move), Move.to(move), type));
+        position.setSideToMove(side);
+    }
+
+    /**
+     * 撤销最近一步：只在局面上O(1)恢复，不改动界面，撤销完后调用syncBoard同步一次
+     *
+     * @return 是否有可以撤销的走法
+     */
+    public boolean undoLastMove() {
+        if (position.getPly() == 0) {
+            return false;
+        }
+        position.unmakeMove();
+        currentColor = position.getSideToMoveColor();
+        return true;
+    }
+
+    /**
+     * 把Chessboard.step格式的一步直接走在局面上，不改动界面，也不改变currentColor；之后调用syncBoard同步一次
+     *
+     * @throws IllegalArgumentException 格式错误或起点没有棋子
+     */
+    public void applyStep(String step) {
+        int move = Move.fromStep(step);
+        if (position.pieceAt(Move.from(move)) == ChessPosition.EMPTY) {
+            throw new IllegalArgumentException("no piece to move in step: " + step);
+        }
+        position.makeMove(move);
+    }
+
+    /**
+     * 逐格比较界面和局面，只重建棋子不一致的格子，最后整个棋盘重绘一次
+     */
+    public void syncBoard() {
+        for (int i = 0; i < CHESSBOARD_SIZE; i++) {
+            for (int j = 0; j < CHESSBOARD_SIZE; j++) {
+                int piece = position.pieceAt(ChessPosition.square(i, j));
+                if (ChessPosition.pieceOf(chessComponents[i][j]) != piece) {
+                    putChessOnBoard(createChess(piece, i, j));
+                }
+            }
+        }
+        repaint();
     }
 
     public void initiateEmptyChessboard() {
@@ -273,7 +389,24 @@ public class Chessboard extends JComponent {
 
     public void swapColor() {
         currentColor = currentColor == ChessColor.BLACK ? ChessColor.WHITE : ChessColor.BLACK;
+        position.setSideToMove(ChessPosition.colorIndex(currentColor));
         gameController.chessGameFrame.changePlayer(currentColor.getName());
+        gameController.onTurnChanged();
+    }
+
+    /**
+     * 在界面上执行一步编码走法(包括升变)并交给对方行棋，供电脑对手使用
+     */
+    public void playMove(int move) {
+        int from = Move.from(move), to = Move.to(move);
+        swapChessComponents(chessComponents[ChessPosition.rowOf(from)][ChessPosition.colOf(from)],
+                chessComponents[ChessPosition.rowOf(to)][ChessPosition.colOf(to)], Move.promotion(move));
+        swapColor();
+        repaint();
+    }
+
+    public GameController getGameController() {
+        return gameController;
     }
 
     private void initRookOnBoard(int row, int col, ChessColor color) {
@@ -343,6 +476,64 @@ public class Chessboard extends JComponent {
             initBlackPawnOnBoard(1, i, ChessColor.BLACK);
             initWhitePawnOnBoard(CHESSBOARD_SIZE - 2, i, ChessColor.WHITE);
         }
+        position.copyFrom(toPosition());
+    }
+
+    /**
+     * @return 当前棋盘对应的不依赖Swing的局面
+     */
+    public ChessPosition toPosition() {
+        return ChessPosition.fromComponents(chessComponents, currentColor);
+    }
+
+    /**
+     * 换成另一个局面(连同悔棋记录)并同步当前行棋方，界面上只重建与原来不同的格子
+     *
+     * @param position 目标局面
+     */
+    public void loadPosition(ChessPosition position) {
+        this.position.copyFrom(position);
+        currentColor = position.getSideToMoveColor();
+        syncBoard();
+    }
+
+    /**
+     * @param piece 棋子编号，见ChessPosition
+     * @return 位于(row, col)的对应棋子组件，EMPTY时返回空位置
+     */
+    public ChessComponent createChess(int piece, int row, int col) {
+        ChessboardPoint chessboardPoint = new ChessboardPoint(row, col);
+        Point location = calculatePoint(row, col);
+        ChessComponent chessComponent;
+        if (piece == ChessPosition.EMPTY) {
+            chessComponent = new EmptySlotComponent(chessboardPoint, location, clickController, CHESS_SIZE);
+        } else {
+            ChessColor color = ChessPosition.chessColorOf(ChessPosition.colorOf(piece));
+            switch (ChessPosition.typeOf(piece)) {
+                case ChessPosition.PAWN:
+                    chessComponent = color == ChessColor.WHITE
+                            ? new PawnChessComponentWhite(chessboardPoint, location, color, clickController, CHESS_SIZE)
+                            : new PawnChessComponentBlack(chessboardPoint, location, color, clickController, CHESS_SIZE);
+                    break;
+                case ChessPosition.KNIGHT:
+                    chessComponent = new KnightChessComponent(chessboardPoint, location, color, clickController, CHESS_SIZE);
+                    break;
+                case ChessPosition.BISHOP:
+                    chessComponent = new BishopChessComponent(chessboardPoint, location, color, clickController, CHESS_SIZE);
+                    break;
+                case ChessPosition.ROOK:
+                    chessComponent = new RookChessComponent(chessboardPoint, location, color, clickController, CHESS_SIZE);
+                    break;
+                case ChessPosition.QUEEN:
+                    chessComponent = new QueenChessComponent(chessboardPoint, location, color, clickController, CHESS_SIZE);
+                    break;
+                default:
+                    chessComponent = new KingChessComponent(chessboardPoint, location, color, clickController, CHESS_SIZE);
+                    break;
+            }
+        }
+        chessComponent.setVisible(true);
+        return chessComponent;
     }
 
     @Override
@@ -351,6 +542,10 @@ public class Chessboard extends JComponent {
         ((Graphics2D) g).setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
     }
 
+    private static int squareOf(ChessComponent chessComponent) {
+        return ChessPosition.square(chessComponent.getChessboardPoint().getX(), chessComponent.getChessboardPoint().getY());
+    }
+
     private Point calculatePoint(int row, int col) {
         return new Point(col * CHESS_SIZE, row * CHESS_SIZE);
     }
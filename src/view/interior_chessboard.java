@@ -2,56 +2,36 @@ package view;
 
 import model.ChessColor;
 import model.ChessComponent;
+import model.ChessPosition;
 import model.EmptySlotComponent;
-import model.KingChessComponent;
 
+/**
+ * 这个类是棋盘的内部副本，用于在不影响界面的情况下试走棋子并判断将军。
+ * <br>
+ * 将军判断基于同步维护的ChessPosition，从王所在格反向查攻击表，不再遍历所有棋子。
+ */
 public class interior_chessboard {
 
     public ChessComponent[][] chessComponents ;
     public ChessColor currentColor;
-
-
-
-
-
-
+    private final ChessPosition position;
 
     public interior_chessboard(ChessComponent[][] chessComponents, ChessColor currentColor){
         this.currentColor=currentColor;
         this.chessComponents=chessComponents;
-
+        this.position=ChessPosition.fromComponents(chessComponents, currentColor);
     }
-    public boolean ischecked(ChessColor currentColor){
-        int x=0;int y=0;
-        Loop :for (int i = 0; i < 8; i++) {
-            for (int j = 0; j < 8; j++) {
-                if (chessComponents[i][j] instanceof KingChessComponent){
-                    if (chessComponents[i][j].getChessColor()==currentColor){
-                        x=i;
-                        y=j;
-                        break  Loop;
-                    }
-                }
-            }
-        }
-        for (int i = 0; i < 8; i++) {
-            for (int j = 0; j < 8; j++) {
-                if(chessComponents[i][j].getChessColor()!=currentColor){
-                    if (chessComponents[i][j].canMoveTo(this.chessComponents,new ChessboardPoint(x,y))){
-                        return true;
-                    }
-                }
-
-
-            }
-        }return false;
 
+    public boolean ischecked(ChessColor currentColor){
+        return position.isInCheck(ChessPosition.colorIndex(currentColor));
     }
 
     public void swapChessComponents(ChessboardPoint chessboardPoint1,ChessboardPoint chessboardPoint2) {
-            chessComponents[chessboardPoint2.getX()][chessboardPoint2.getY()]=chessComponents[chessboardPoint1.getX()][chessboardPoint1.getY()];
-            chessComponents[chessboardPoint2.getX()][chessboardPoint2.getY()].setChessboardPoint(chessboardPoint2);
-            chessComponents[chessboardPoint1.getX()][chessboardPoint1.getY()]=new EmptySlotComponent(chessboardPoint1,ChessColor.NONE);
+            ChessComponent moved=chessComponents[chessboardPoint1.getX()][chessboardPoint1.getY()];
+            chessComponents[chessboardPoint2.getX()][chessboardPoint2.getY()]=moved;
+            chessComponents[chessboardPoint1.getX()][chessboardPoint1.getY()]=new EmptySlotComponent(chessboardPoint1,moved.getLocation(),null,moved.getWidth());
+            moved.setChessboardPoint(chessboardPoint2);
+            position.movePiece(ChessPosition.square(chessboardPoint1.getX(),chessboardPoint1.getY()),ChessPosition.square(chessboardPoint2.getX(),chessboardPoint2.getY()));
     }
 
     public ChessComponent[][] getChessComponent(){
@@ -59,6 +39,9 @@ public class interior_chessboard {
 
     }
 
+    public ChessPosition getPosition(){
+        return position;
+    }
 
     public ChessColor getCurrentColor(){
         return currentColor;